@@ -0,0 +1,329 @@
+package com.deqiying.qtool;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按主机限流的调度器
+ * <p>
+ * 以{@link UrlUtils#getHost(String)}提取的主机为键，为每个主机提供并发许可与令牌桶限速。
+ * 收到429或503响应时按乘性减小速率（并遵循Retry-After），成功响应时按加性恢复速率（AIMD），
+ * 从而在不压垮单个主机的前提下保持多主机的总体吞吐。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class HostThrottle {
+    /**
+     * 主机数超过该值时清理空闲主机
+     */
+    private static final int MAX_IDLE_HOSTS = 4096;
+
+    /**
+     * 无需限流时使用的空许可
+     */
+    static final Permit NOOP_PERMIT = new Permit(null);
+
+    private final int maxConcurrentPerHost;
+    private final double maxRate;
+    private final double minRate;
+    private final int burst;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+    private final long decreaseCooldownNanos;
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrentPerHost 每个主机的最大并发数
+     * @param permitsPerSecond     每个主机的最大请求速率（每秒请求数）
+     * @param burst                令牌桶容量，允许的突发请求数
+     */
+    public HostThrottle(int maxConcurrentPerHost, double permitsPerSecond, int burst) {
+        this(maxConcurrentPerHost, permitsPerSecond, burst, Math.max(0.1, permitsPerSecond / 100), 1.0, 0.5, 1000);
+    }
+
+    /**
+     * @param maxConcurrentPerHost  每个主机的最大并发数
+     * @param permitsPerSecond      每个主机的最大请求速率（每秒请求数）
+     * @param burst                 令牌桶容量，允许的突发请求数
+     * @param minPermitsPerSecond   退避后的最低速率
+     * @param additiveIncrease      加性增：持续成功时每秒约增加的速率
+     * @param decreaseFactor        乘性减：收到429/503时速率乘以该系数，取值(0, 1)
+     * @param decreaseCooldownMillis 两次乘性减之间的最小间隔，避免同一批失败响应连续降速
+     */
+    public HostThrottle(int maxConcurrentPerHost, double permitsPerSecond, int burst, double minPermitsPerSecond,
+                        double additiveIncrease, double decreaseFactor, long decreaseCooldownMillis) {
+        if (maxConcurrentPerHost <= 0) {
+            throw new IllegalArgumentException("maxConcurrentPerHost必须大于0");
+        }
+        if (permitsPerSecond <= 0 || minPermitsPerSecond <= 0 || minPermitsPerSecond > permitsPerSecond) {
+            throw new IllegalArgumentException("速率必须大于0且minPermitsPerSecond不能大于permitsPerSecond");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst必须大于0");
+        }
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("decreaseFactor取值范围为(0, 1)");
+        }
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+        this.maxRate = permitsPerSecond;
+        this.minRate = minPermitsPerSecond;
+        this.burst = burst;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.decreaseCooldownNanos = TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMillis);
+    }
+
+    /**
+     * 获取访问URL所在主机的许可，阻塞直到获得并发许可与令牌
+     *
+     * @param url           请求的URL
+     * @param timeoutMillis 最长等待时间（毫秒），小于等于0表示一直等待
+     * @return 许可，请求结束后必须关闭
+     * @throws InterruptedException 等待时被中断
+     * @throws TimeoutException     超时仍未获得许可
+     */
+    public Permit acquireForUrl(String url, long timeoutMillis) throws InterruptedException, TimeoutException {
+        return acquire(UrlUtils.getHost(url), timeoutMillis);
+    }
+
+    /**
+     * 获取主机的许可，阻塞直到获得并发许可与令牌
+     *
+     * @param host          主机名，为null时不限流
+     * @param timeoutMillis 最长等待时间（毫秒），小于等于0表示一直等待
+     * @return 许可，请求结束后必须关闭
+     * @throws InterruptedException 等待时被中断
+     * @throws TimeoutException     超时仍未获得许可
+     */
+    public Permit acquire(String host, long timeoutMillis) throws InterruptedException, TimeoutException {
+        if (host == null || host.isEmpty()) {
+            return NOOP_PERMIT;
+        }
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        HostState state;
+        while (true) {
+            state = state(host);
+            if (deadline == 0) {
+                state.concurrency.acquire();
+            } else if (!state.concurrency.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException("等待主机并发许可超时: " + host);
+            }
+            // 持有许可的状态不会被清理；获取许可前已被清理的状态要换成新的，否则同一主机会有两套限流状态
+            if (state.isAlive()) {
+                break;
+            }
+            state.concurrency.release();
+            hosts.remove(host, state);
+        }
+        try {
+            state.takeToken(deadline, host);
+        } catch (InterruptedException | TimeoutException | RuntimeException e) {
+            state.concurrency.release();
+            throw e;
+        }
+        return new Permit(state);
+    }
+
+    /**
+     * 根据响应调整主机的速率：429/503时乘性减并遵循Retry-After，其余非5xx响应时加性增
+     *
+     * @param host       主机名
+     * @param statusCode HTTP响应码
+     * @param retryAfter 响应头Retry-After的值，可为null
+     */
+    public void onResponse(String host, int statusCode, String retryAfter) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+        HostState state = hosts.get(host);
+        while (state != null && !state.isAlive()) {
+            hosts.remove(host, state);
+            state = hosts.get(host);
+        }
+        if (state == null) {
+            return;
+        }
+        if (statusCode == 429 || statusCode == 503) {
+            state.backoff(parseRetryAfter(retryAfter));
+        } else if (statusCode < 500) {
+            state.recover();
+        }
+    }
+
+    /**
+     * 获取主机当前的限速速率（每秒请求数），未访问过的主机返回最大速率
+     *
+     * @param host 主机名
+     * @return 当前速率
+     */
+    public double getRate(String host) {
+        HostState state = host == null ? null : hosts.get(host);
+        if (state == null) {
+            return maxRate;
+        }
+        synchronized (state) {
+            return state.rate;
+        }
+    }
+
+    private HostState state(String host) {
+        HostState state = hosts.get(host);
+        if (state != null) {
+            if (state.isAlive()) {
+                return state;
+            }
+            hosts.remove(host, state);
+        }
+        if (hosts.size() >= MAX_IDLE_HOSTS) {
+            evictIdle();
+        }
+        return hosts.computeIfAbsent(host, h -> new HostState());
+    }
+
+    /**
+     * 清理没有进行中请求、速率与令牌都已恢复的主机：先在状态锁内标记失效，再仅当映射仍指向该状态时移除
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, HostState> entry : hosts.entrySet()) {
+            HostState state = entry.getValue();
+            if (state.retireIfIdle(now)) {
+                hosts.remove(entry.getKey(), state);
+            }
+        }
+    }
+
+    /**
+     * 解析Retry-After（秒数或HTTP日期），返回需要等待的纳秒数
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return 0;
+        }
+        String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            long millis = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+                    - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        } catch (RuntimeException ignored) {
+        }
+        return 0;
+    }
+
+    /**
+     * 主机许可，关闭时归还并发许可
+     */
+    public static class Permit implements AutoCloseable {
+        private final HostState state;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(HostState state) {
+            this.state = state;
+        }
+
+        @Override
+        public void close() {
+            if (state != null && released.compareAndSet(false, true)) {
+                state.concurrency.release();
+            }
+        }
+    }
+
+    /**
+     * 单个主机的限流状态
+     */
+    private class HostState {
+        final Semaphore concurrency = new Semaphore(maxConcurrentPerHost);
+        // 以下字段由this锁保护
+        double rate = maxRate;
+        double tokens = burst;
+        long lastRefill = System.nanoTime();
+        long blockedUntil = lastRefill;
+        long lastDecrease = lastRefill - decreaseCooldownNanos;
+        // 被清理后为true
+        boolean dead;
+
+        /**
+         * 取出一个令牌，令牌不足或处于退避期时等待
+         */
+        void takeToken(long deadline, String host) throws InterruptedException, TimeoutException {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    if (now - blockedUntil >= 0 && tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    waitNanos = Math.max(blockedUntil - now, (long) ((1 - tokens) / rate * 1e9));
+                }
+                if (deadline != 0 && System.nanoTime() + waitNanos - deadline > 0) {
+                    throw new TimeoutException("等待主机限速令牌超时: " + host);
+                }
+                LockSupport.parkNanos(this, Math.max(waitNanos, 1000));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefill;
+            if (elapsed > 0) {
+                tokens = Math.min(burst, tokens + elapsed / 1e9 * rate);
+                lastRefill = now;
+            }
+        }
+
+        synchronized void backoff(long retryAfterNanos) {
+            long now = System.nanoTime();
+            refill(now);
+            if (now - lastDecrease >= decreaseCooldownNanos) {
+                rate = Math.max(minRate, rate * decreaseFactor);
+                lastDecrease = now;
+            }
+            // 丢弃积攒的突发额度，立即按新速率发放
+            tokens = Math.min(tokens, 0);
+            if (retryAfterNanos > 0 && now + retryAfterNanos - blockedUntil > 0) {
+                blockedUntil = now + retryAfterNanos;
+            }
+        }
+
+        synchronized void recover() {
+            if (rate < maxRate) {
+                // 每个成功响应增加additiveIncrease/rate，约等于每秒增加additiveIncrease
+                rate = Math.min(maxRate, rate + additiveIncrease / rate);
+            }
+        }
+
+        synchronized boolean isAlive() {
+            return !dead;
+        }
+
+        /**
+         * 空闲（无进行中请求、未降速、未退避且令牌已满）时标记为失效。
+         * 获取许可后在锁内检查isAlive，与此处互斥，因此持有许可的状态不会被标记
+         */
+        synchronized boolean retireIfIdle(long now) {
+            refill(now);
+            if (concurrency.availablePermits() == maxConcurrentPerHost && rate >= maxRate
+                    && now - blockedUntil >= 0 && tokens >= burst) {
+                dead = true;
+            }
+            return dead;
+        }
+    }
+}
@@ -1,11 +1,32 @@
 package com.deqiying.qtool;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileCacheImageOutputStream;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 @SuppressWarnings("unused")
 public class ImageWatermarkUtil {
@@ -35,6 +56,146 @@ public class ImageWatermarkUtil {
         return convertImageToByteArray(mainImage);
     }
 
+    /**
+     * 将水印图片按指定不透明度添加到主图片上，返回byte数组
+     *
+     * @param mainImage      主图片
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离
+     * @param opacity        水印不透明度，取值[0, 1]
+     * @return 包含水印的图片byte数组
+     */
+    public static byte[] addWatermark(BufferedImage mainImage, BufferedImage watermarkImage,
+                                      Position position, int margin, float opacity) throws IOException {
+        Point watermarkPosition = calculatePosition(mainImage, watermarkImage, position, margin);
+        addWatermarkToImage(mainImage, watermarkImage, watermarkPosition.x, watermarkPosition.y, opacity);
+        return convertImageToByteArray(mainImage);
+    }
+
+    /**
+     * 将文字水印添加到主图片上，返回byte数组
+     * <p>
+     * 渲染后的文字通过{@link WatermarkCache#getDefault()}复用，每张图片只需合成
+     *
+     * @param mainImage 主图片
+     * @param text      文字水印
+     * @param position  水印位置（角落）
+     * @param margin    边缘距离
+     * @return 包含水印的图片byte数组
+     */
+    public static byte[] addTextWatermark(BufferedImage mainImage, TextWatermark text,
+                                          Position position, int margin) throws IOException {
+        BufferedImage watermarkImage = text.toImage();
+        Point watermarkPosition = calculatePosition(mainImage, watermarkImage, position, margin);
+        addWatermarkToImage(mainImage, watermarkImage, watermarkPosition.x, watermarkPosition.y);
+        return convertImageToByteArray(mainImage);
+    }
+
+    /**
+     * 将文字水印添加到主图片上，按输出选项编码后直接写入输出流
+     *
+     * @param mainImage 主图片
+     * @param text      文字水印，不透明度由文字水印自身决定
+     * @param position  水印位置（角落）
+     * @param margin    边缘距离
+     * @param options   输出选项，保留原格式时输出PNG
+     * @param out       输出流，由调用方关闭
+     */
+    public static void addTextWatermark(BufferedImage mainImage, TextWatermark text, Position position,
+                                        int margin, OutputOptions options, OutputStream out) throws IOException {
+        BufferedImage watermarkImage = text.toImage();
+        Point watermarkPosition = calculatePosition(mainImage, watermarkImage, position, margin);
+        addWatermarkToImage(mainImage, watermarkImage, watermarkPosition.x, watermarkPosition.y);
+        writeImage(mainImage, null, options, out);
+    }
+
+    /**
+     * 将水印平铺满整张图片（防泄漏水印），返回byte数组
+     * <p>
+     * 水印与间距组成一个图案单元，只渲染（旋转）一次，再以一次填充或直接写像素数组的方式覆盖整张图片，
+     * 耗时与图片面积成正比，没有逐个水印调用的额外开销。
+     *
+     * @param mainImage      主图片
+     * @param watermarkImage 水印图片
+     * @param spacingX       相邻水印的水平间距
+     * @param spacingY       相邻水印的垂直间距
+     * @param rotation       整个图案的旋转角度（度），正值为顺时针，例如-30为斜向平铺
+     * @param opacity        水印不透明度，取值[0, 1]
+     * @return 包含水印的图片byte数组
+     */
+    public static byte[] addTiledWatermark(BufferedImage mainImage, BufferedImage watermarkImage, int spacingX,
+                                           int spacingY, double rotation, float opacity) throws IOException {
+        tileWatermark(mainImage, watermarkImage, spacingX, spacingY, rotation, opacity);
+        return convertImageToByteArray(mainImage);
+    }
+
+    /**
+     * 将文字水印平铺满整张图片（防泄漏水印），返回byte数组
+     *
+     * @param mainImage 主图片
+     * @param text      文字水印，不透明度由文字水印自身决定
+     * @param spacingX  相邻水印的水平间距
+     * @param spacingY  相邻水印的垂直间距
+     * @param rotation  整个图案的旋转角度（度），正值为顺时针
+     * @return 包含水印的图片byte数组
+     * @see #addTiledWatermark(BufferedImage, BufferedImage, int, int, double, float)
+     */
+    public static byte[] addTiledWatermark(BufferedImage mainImage, TextWatermark text, int spacingX,
+                                           int spacingY, double rotation) throws IOException {
+        tileWatermark(mainImage, text.toImage(), spacingX, spacingY, rotation, 1.0f);
+        return convertImageToByteArray(mainImage);
+    }
+
+    /**
+     * 缩放并添加水印（缩略图），返回byte数组
+     * <p>
+     * 逐级减半缩小到目标尺寸，最后一级直接绘制到目标图片后在同一张图片上合成水印，
+     * 不产生全尺寸的中间图片；水印位置按缩放后的尺寸计算，水印本身不缩放。
+     *
+     * @param mainImage      主图片
+     * @param width          目标宽度
+     * @param height         目标高度，小于等于0时按宽度等比计算
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离（按目标尺寸计算）
+     * @param opacity        水印不透明度，取值[0, 1]
+     * @return 包含水印的缩略图byte数组
+     */
+    public static byte[] resizeAndWatermark(BufferedImage mainImage, int width, int height,
+                                            BufferedImage watermarkImage, Position position, int margin,
+                                            float opacity) throws IOException {
+        return convertImageToByteArray(scaleAndWatermark(mainImage, width, height, watermarkImage, position,
+                margin, opacity));
+    }
+
+    /**
+     * 解码、缩放并添加水印（缩略图），按输出选项编码后直接写入输出流
+     * <p>
+     * 目标尺寸远小于原图时在解码阶段子采样，不解码完整分辨率的图片，降低缩略图的峰值内存与CPU开销
+     *
+     * @param source         图片输入流，由调用方关闭
+     * @param width          目标宽度
+     * @param height         目标高度，小于等于0时按宽度等比计算
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离（按目标尺寸计算）
+     * @param options        输出选项（含水印不透明度），格式为null时保留原格式
+     * @param out            输出流，由调用方关闭
+     */
+    public static void resizeAndWatermark(InputStream source, int width, int height, BufferedImage watermarkImage,
+                                          Position position, int margin, OutputOptions options,
+                                          OutputStream out) throws IOException {
+        // 等比计算高度前无法得知原图比例，此时只按宽度估计子采样
+        DecodedImage decoded = decodeImage(source, width, height > 0 ? height : 1);
+        if (decoded.image == null) {
+            throw new IOException("无法解码图片");
+        }
+        BufferedImage thumbnail = scaleAndWatermark(decoded.image, width, height, watermarkImage, position,
+                margin, options.opacity);
+        writeImage(thumbnail, decoded.formatName, options, out);
+    }
+
     /**
      * 将水印图片添加到主图片上（指定具体坐标），返回byte数组
      *
@@ -46,25 +207,409 @@ public class ImageWatermarkUtil {
      */
     public static byte[] addWatermark(String mainImageUrl, String watermarkImageUrl,
                                       int x, int y) throws Exception {
-        BufferedImage mainImage = loadImage(UrlUtils.openUrl(mainImageUrl));
-        BufferedImage watermarkImage = loadImage(UrlUtils.openUrl(watermarkImageUrl));
+        return addWatermark(mainImageUrl, watermarkImageUrl, x, y, 0);
+    }
 
-        // 添加水印
-        addWatermarkToImage(mainImage, watermarkImage, x, y);
+    /**
+     * 将水印图片按指定宽度缩放后添加到主图片上（指定具体坐标），返回byte数组
+     * <p>
+     * 水印从{@link WatermarkCache#getDefault()}获取，已解码、缩放并转换为预乘ARGB的版本会被复用
+     *
+     * @param mainImageUrl      主图片的URL
+     * @param watermarkImageUrl 水印图片的URL
+     * @param x                 水印x坐标
+     * @param y                 水印y坐标
+     * @param watermarkWidth    水印宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @return 包含水印的图片byte数组
+     */
+    public static byte[] addWatermark(String mainImageUrl, String watermarkImageUrl,
+                                      int x, int y, int watermarkWidth) throws Exception {
+        return addWatermark(mainImageUrl, watermarkImageUrl, x, y, watermarkWidth, null);
+    }
 
-        // 将结果转换为byte数组
-        return convertImageToByteArray(mainImage);
+    /**
+     * 将水印图片按指定宽度缩放后添加到主图片上（指定具体坐标），返回byte数组
+     * <p>
+     * 主图片与水印并发下载、解码，总耗时约为两者中较慢的一个；任一失败时立即返回
+     *
+     * @param mainImageUrl      主图片的URL
+     * @param watermarkImageUrl 水印图片的URL
+     * @param x                 水印x坐标
+     * @param y                 水印y坐标
+     * @param watermarkWidth    水印宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @param options           请求选项，其截止时间作为整体（下载、解码、绘制、编码）的截止时间；为null时使用默认选项
+     * @return 包含水印的图片byte数组
+     * @throws java.net.SocketTimeoutException 超过截止时间
+     */
+    public static byte[] addWatermark(String mainImageUrl, String watermarkImageUrl, int x, int y,
+                                      int watermarkWidth, UrlUtils.FetchOptions options) throws Exception {
+        try {
+            return addWatermarkAsync(mainImageUrl, watermarkImageUrl, x, y, watermarkWidth, options).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 异步添加水印，不阻塞调用线程
+     * <p>
+     * 主图片与水印在{@link UrlUtils#setAsyncExecutor(java.util.concurrent.Executor)}指定的执行器上并发下载、解码，
+     * 绘制与编码在较晚完成的任务所在线程上执行。任一来源失败或超过截止时间时，返回的Future立即以该异常完成。
+     *
+     * @param mainImageUrl      主图片的URL
+     * @param watermarkImageUrl 水印图片的URL
+     * @param x                 水印x坐标
+     * @param y                 水印y坐标
+     * @param watermarkWidth    水印宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @param options           请求选项，其截止时间作为整体的截止时间；为null时使用默认选项
+     * @return 包含水印的图片byte数组的Future
+     */
+    public static CompletableFuture<byte[]> addWatermarkAsync(String mainImageUrl, String watermarkImageUrl,
+                                                              int x, int y, int watermarkWidth,
+                                                              UrlUtils.FetchOptions options) {
+        UrlUtils.FetchOptions fetchOptions = options == null ? new UrlUtils.FetchOptions() : options;
+        CompletableFuture<byte[]> result = UrlFetcher.Deadline.after(fetchOptions.deadlineMillis)
+                .bound(new CompletableFuture<>());
+        CompletableFuture<BufferedImage> main = UrlFetcher.supplyAsync(() -> {
+            try (InputStream inputStream = UrlUtils.openUrl(mainImageUrl, fetchOptions)) {
+                BufferedImage image = loadImage(inputStream);
+                if (image == null) {
+                    throw new IOException("无法解码图片: " + mainImageUrl);
+                }
+                return image;
+            }
+        });
+        CompletableFuture<BufferedImage> watermark = UrlFetcher.supplyAsync(() -> WatermarkCache.getDefault()
+                .get(watermarkImageUrl, watermarkWidth, BufferedImage.TYPE_INT_ARGB_PRE, fetchOptions));
+        // 任一来源失败时立即结束，不等待另一个
+        main.whenComplete((image, error) -> failFast(result, error));
+        watermark.whenComplete((image, error) -> failFast(result, error));
+        main.thenAcceptBoth(watermark, (mainImage, watermarkImage) -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                addWatermarkToImage(mainImage, watermarkImage, x, y);
+                result.complete(convertImageToByteArray(mainImage));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void failFast(CompletableFuture<?> result, Throwable error) {
+        if (error != null) {
+            result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        }
+    }
+
+    /**
+     * 将水印图片添加到主图片上，按输出选项编码后直接写入输出流
+     *
+     * @param mainImage      主图片
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离
+     * @param options        输出选项，保留原格式时输出PNG（BufferedImage没有原格式信息）
+     * @param out            输出流，由调用方关闭
+     */
+    public static void addWatermark(BufferedImage mainImage, BufferedImage watermarkImage, Position position,
+                                    int margin, OutputOptions options, OutputStream out) throws IOException {
+        Point watermarkPosition = calculatePosition(mainImage, watermarkImage, position, margin);
+        addWatermarkToImage(mainImage, watermarkImage, watermarkPosition.x, watermarkPosition.y, options.opacity);
+        writeImage(mainImage, null, options, out);
+    }
+
+    /**
+     * 将水印图片添加到主图片上（指定具体坐标），按输出选项编码后直接写入输出流
+     *
+     * @param mainImageUrl      主图片的URL
+     * @param watermarkImageUrl 水印图片的URL
+     * @param x                 水印x坐标
+     * @param y                 水印y坐标
+     * @param watermarkWidth    水印宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @param options           输出选项，格式为null时保留主图片的原格式
+     * @param out               输出流，由调用方关闭
+     */
+    public static void addWatermark(String mainImageUrl, String watermarkImageUrl, int x, int y, int watermarkWidth,
+                                    OutputOptions options, OutputStream out) throws Exception {
+        DecodedImage main;
+        try (InputStream inputStream = UrlUtils.openUrl(mainImageUrl)) {
+            main = decodeImage(inputStream);
+        }
+        BufferedImage watermarkImage = WatermarkCache.getDefault().get(watermarkImageUrl, watermarkWidth);
+        addWatermarkToImage(main.image, watermarkImage, x, y, options.opacity);
+        writeImage(main.image, main.formatName, options, out);
+    }
+
+    /**
+     * 大图模式：按条带分块读取、添加水印并写出，不将整张图片解码到内存
+     * <p>
+     * 只有与水印相交的条带会被合成，峰值内存取决于条带大小而与图片尺寸无关。
+     * 适用于数万像素边长的TIFF、JPEG等图片；JPEG输出时编码器可能需要整张光栅，大图建议输出PNG或TIFF。
+     *
+     * @param source         图片文件
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离（按输出尺寸计算）
+     * @param subsampling    子采样系数，1表示原尺寸，n表示宽高各缩小为1/n
+     * @param options        输出选项，格式为null时保留原格式
+     * @param out            输出流，由调用方关闭
+     */
+    public static void addWatermarkToLargeImage(File source, BufferedImage watermarkImage, Position position,
+                                                int margin, int subsampling, OutputOptions options,
+                                                OutputStream out) throws IOException {
+        try (ImageInputStream input = new FileImageInputStream(source)) {
+            RegionWatermarker.process(input, watermarkImage, position, margin, subsampling,
+                    RegionWatermarker.DEFAULT_MAX_BAND_BYTES, options, out);
+        }
+    }
+
+    /**
+     * 大图模式：按条带分块读取、添加水印并写出
+     * <p>
+     * 按区域读取需要回溯，输入流中的压缩数据会缓存在内存中（解码后的像素不会），
+     * 图片已在磁盘上时应使用{@link #addWatermarkToLargeImage(File, BufferedImage, Position, int, int, OutputOptions, OutputStream)}。
+     *
+     * @param source         图片输入流，由调用方关闭
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离（按输出尺寸计算）
+     * @param subsampling    子采样系数，1表示原尺寸，n表示宽高各缩小为1/n
+     * @param options        输出选项，格式为null时保留原格式
+     * @param out            输出流，由调用方关闭
+     */
+    public static void addWatermarkToLargeImage(InputStream source, BufferedImage watermarkImage, Position position,
+                                                int margin, int subsampling, OutputOptions options,
+                                                OutputStream out) throws IOException {
+        // 直接包装调用方的输入流，中间数据缓存在内存中，不写临时文件
+        try (ImageInputStream input = new MemoryCacheImageInputStream(source)) {
+            RegionWatermarker.process(input, watermarkImage, position, margin, subsampling,
+                    RegionWatermarker.DEFAULT_MAX_BAND_BYTES, options, out);
+        }
     }
 
     /**
      * 将BufferedImage转换为byte数组
      */
-    private static byte[] convertImageToByteArray(BufferedImage image) throws IOException {
+    static byte[] convertImageToByteArray(BufferedImage image) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)) {
+            ImageIO.write(image, "png", ios);
+        }
         return baos.toByteArray();
     }
 
+    /**
+     * 按输出选项编码图片并写入通道
+     *
+     * @param image        图片
+     * @param sourceFormat 图片的原格式，可为null
+     * @param options      输出选项
+     * @param channel      输出通道，由调用方关闭
+     */
+    public static void writeImage(BufferedImage image, String sourceFormat, OutputOptions options,
+                                  WritableByteChannel channel) throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        writeImage(image, sourceFormat, options, out);
+        out.flush();
+    }
+
+    /**
+     * 按输出选项编码图片并直接写入输出流，不经过中间字节数组
+     *
+     * @param image        图片
+     * @param sourceFormat 图片的原格式，可为null
+     * @param options      输出选项
+     * @param out          输出流，由调用方关闭
+     */
+    public static void writeImage(BufferedImage image, String sourceFormat, OutputOptions options,
+                                  OutputStream out) throws IOException {
+        String format = resolveFormat(sourceFormat, options);
+        encode(isJpeg(format) ? toOpaque(image) : image, format, options, out, false);
+    }
+
+    static String resolveFormat(String sourceFormat, OutputOptions options) {
+        return options.format != null ? options.format : (sourceFormat != null ? sourceFormat : "png");
+    }
+
+    /**
+     * 以指定格式编码图片，JPEG输出的图片须已不含透明通道
+     *
+     * @param fileCache 编码器回写（如TIFF回填偏移量）所需的缓存是否放在临时文件中，大图时避免输出整体驻留内存
+     */
+    static void encode(RenderedImage image, String format, OutputOptions options, OutputStream out,
+                       boolean fileCache) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("不支持的输出格式: " + format);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        String[] compressionTypes = param.canWriteCompressed() ? param.getCompressionTypes() : null;
+        // 有多种压缩类型（如TIFF）且未指定时保留编码器的默认设置
+        if (compressionTypes != null && (options.compressionType != null || compressionTypes.length == 1)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType(options.compressionType != null ? options.compressionType : compressionTypes[0]);
+            param.setCompressionQuality(isJpeg(format) ? options.quality : options.compressionQuality);
+        }
+        if (options.progressive && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        // 直接包装调用方的输出流
+        ImageOutputStream ios = fileCache ? new FileCacheImageOutputStream(out, null)
+                : new MemoryCacheImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+            ios.flush();
+        } finally {
+            writer.dispose();
+            ios.close();
+        }
+    }
+
+    static boolean isJpeg(String format) {
+        return "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+    }
+
+    /**
+     * JPEG不支持透明通道，带透明度的图片先合成到白色背景
+     */
+    static BufferedImage toOpaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = opaque.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g2d.drawImage(image, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return opaque;
+    }
+
+    /**
+     * 解码图片并记录其格式
+     */
+    static DecodedImage decodeImage(InputStream inputStream) throws IOException {
+        return decodeImage(inputStream, 0, 0);
+    }
+
+    /**
+     * 解码图片并记录其格式，目标尺寸远小于原图时在解码阶段子采样，
+     * 保留至少两倍目标尺寸供后续双线性缩小，不解码完整分辨率
+     *
+     * @param targetWidth  目标宽度，小于等于0表示不子采样
+     * @param targetHeight 目标高度，小于等于0表示不子采样
+     */
+    static DecodedImage decodeImage(InputStream inputStream, int targetWidth, int targetHeight) throws IOException {
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("无法识别的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (targetWidth > 0 && targetHeight > 0) {
+                    int factor = Math.min(reader.getWidth(0) / (targetWidth * 2),
+                            reader.getHeight(0) / (targetHeight * 2));
+                    if (factor > 1) {
+                        param.setSourceSubsampling(factor, factor, 0, 0);
+                    }
+                }
+                return new DecodedImage(reader.read(0, param), reader.getFormatName().toLowerCase(Locale.ROOT));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 解码后的图片及其原格式
+     */
+    static final class DecodedImage {
+        final BufferedImage image;
+        final String formatName;
+
+        DecodedImage(BufferedImage image, String formatName) {
+            this.image = image;
+            this.formatName = formatName;
+        }
+    }
+
+    /**
+     * 图片输出选项
+     */
+    public static class OutputOptions {
+        /**
+         * 输出格式，例如jpeg、png；为null时保留原格式
+         */
+        public String format;
+        /**
+         * JPEG质量，取值[0, 1]
+         */
+        public float quality = 0.85f;
+        /**
+         * 无损格式（如PNG）的压缩质量，取值[0, 1]，越小压缩率越高、编码越慢；仅在编码器支持时生效
+         */
+        public float compressionQuality = 0.5f;
+        /**
+         * 压缩类型，为null时使用编码器默认值
+         */
+        public String compressionType;
+        /**
+         * 是否输出渐进式图片（仅编码器支持时生效）
+         */
+        public boolean progressive;
+        /**
+         * 水印不透明度，取值[0, 1]
+         */
+        public float opacity = 1.0f;
+
+        /**
+         * 保留原格式
+         */
+        public static OutputOptions keepSource() {
+            return new OutputOptions();
+        }
+
+        /**
+         * 输出JPEG
+         *
+         * @param quality 质量，取值[0, 1]
+         */
+        public static OutputOptions jpeg(float quality) {
+            OutputOptions options = new OutputOptions();
+            options.format = "jpeg";
+            options.quality = quality;
+            return options;
+        }
+
+        /**
+         * 输出PNG
+         */
+        public static OutputOptions png() {
+            OutputOptions options = new OutputOptions();
+            options.format = "png";
+            return options;
+        }
+    }
+
     /**
      * 从URL加载图片
      */
@@ -79,7 +624,7 @@ public class ImageWatermarkUtil {
     /**
      * 从URL加载图片
      */
-    private static BufferedImage loadImage(byte[] image) throws IOException {
+    static BufferedImage loadImage(byte[] image) throws IOException {
         try (InputStream inputStream = new ByteArrayInputStream(image)) {
             return loadImage(inputStream);
         }
@@ -87,17 +632,23 @@ public class ImageWatermarkUtil {
     /**
      * 从URL加载图片
      */
-    private static BufferedImage loadImage(InputStream inputStream) throws IOException {
-        return ImageIO.read(inputStream);
+    static BufferedImage loadImage(InputStream inputStream) throws IOException {
+        return ImageIO.read(new MemoryCacheImageInputStream(inputStream));
     }
 
     /**
      * 计算水印位置
      */
-    private static Point calculatePosition(BufferedImage mainImage, BufferedImage watermarkImage,
+    static Point calculatePosition(BufferedImage mainImage, BufferedImage watermarkImage,
                                            Position position, int margin) {
-        int mainWidth = mainImage.getWidth();
-        int mainHeight = mainImage.getHeight();
+        return calculatePosition(mainImage.getWidth(), mainImage.getHeight(), watermarkImage, position, margin);
+    }
+
+    /**
+     * 根据主图片尺寸计算水印位置
+     */
+    static Point calculatePosition(int mainWidth, int mainHeight, BufferedImage watermarkImage,
+                                   Position position, int margin) {
         int watermarkWidth = watermarkImage.getWidth();
         int watermarkHeight = watermarkImage.getHeight();
 
@@ -127,16 +678,182 @@ public class ImageWatermarkUtil {
         return new Point(x, y);
     }
 
+    /**
+     * 缩放到目标尺寸并在结果上合成水印，目标图片为RasterCompositor支持的INT_RGB或INT_ARGB
+     */
+    static BufferedImage scaleAndWatermark(BufferedImage source, int width, int height,
+                                           BufferedImage watermarkImage, Position position, int margin,
+                                           float opacity) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("目标宽度必须大于0");
+        }
+        if (height <= 0) {
+            height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        }
+        int imageType = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = scaleImage(source, width, height, imageType);
+        if (scaled == source) {
+            // 尺寸与格式相同时不修改调用方的图片
+            scaled = drawScaled(source, width, height, imageType);
+        }
+        Point point = calculatePosition(scaled, watermarkImage, position, margin);
+        addWatermarkToImage(scaled, watermarkImage, point.x, point.y, opacity);
+        return scaled;
+    }
+
+    /**
+     * 缩放图片，缩小到一半以下时逐级减半进行双线性插值，避免一次大比例缩放丢失细节
+     */
+    static BufferedImage scaleImage(BufferedImage source, int width, int height, int imageType) {
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        while (w / 2 >= width && h / 2 >= height) {
+            w /= 2;
+            h /= 2;
+            current = drawScaled(current, w, h, imageType);
+        }
+        if (current.getWidth() == width && current.getHeight() == height && current.getType() == imageType) {
+            return current;
+        }
+        return drawScaled(current, width, height, imageType);
+    }
+
+    private static BufferedImage drawScaled(BufferedImage source, int width, int height, int imageType) {
+        BufferedImage scaled = new BufferedImage(width, height, imageType);
+        Graphics2D g2d = scaled.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g2d.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * 以图案单元平铺水印
+     * <p>
+     * 不旋转时用{@link TexturePaint}一次填充；旋转时先将水印旋转渲染一次，再按旋转后的网格逐个直接合成到像素数组，
+     * 避免经过变换的TexturePaint逐像素插值的开销
+     */
+    static void tileWatermark(BufferedImage mainImage, BufferedImage watermarkImage, int spacingX, int spacingY,
+                              double rotation, float opacity) {
+        if (spacingX < 0 || spacingY < 0) {
+            throw new IllegalArgumentException("间距不能为负数");
+        }
+        int cellWidth = watermarkImage.getWidth() + spacingX;
+        int cellHeight = watermarkImage.getHeight() + spacingY;
+        int width = mainImage.getWidth();
+        int height = mainImage.getHeight();
+        if (rotation == 0 || !RasterCompositor.supports(mainImage)) {
+            // 图案单元：水印居中，四周各留一半间距
+            BufferedImage cell = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D cg = cell.createGraphics();
+            try {
+                cg.drawImage(watermarkImage, spacingX / 2, spacingY / 2, null);
+            } finally {
+                cg.dispose();
+            }
+            Graphics2D g2d = mainImage.createGraphics();
+            try {
+                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,
+                        Math.max(0f, Math.min(1f, opacity))));
+                Shape area = new Rectangle(0, 0, width, height);
+                if (rotation != 0) {
+                    // 绕图片中心旋转坐标系，填充区域取图片在旋转后坐标系中的包围盒
+                    AffineTransform rotate = AffineTransform.getRotateInstance(Math.toRadians(rotation),
+                            width / 2.0, height / 2.0);
+                    area = inverse(rotate).createTransformedShape(area).getBounds();
+                    g2d.transform(rotate);
+                }
+                g2d.setPaint(new TexturePaint(cell, new Rectangle(0, 0, cellWidth, cellHeight)));
+                g2d.fill(area);
+            } finally {
+                g2d.dispose();
+            }
+            return;
+        }
+
+        double theta = Math.toRadians(rotation);
+        BufferedImage rotated = rotateImage(watermarkImage, theta);
+        // 网格以图片中心为原点，取图片四角在旋转前坐标系中的范围确定需要覆盖的行列
+        AffineTransform rotate = AffineTransform.getRotateInstance(theta, width / 2.0, height / 2.0);
+        Rectangle range = inverse(rotate).createTransformedShape(new Rectangle(0, 0, width, height)).getBounds();
+        range.grow(cellWidth, cellHeight);
+        int halfWidth = rotated.getWidth() / 2;
+        int halfHeight = rotated.getHeight() / 2;
+        double[] point = new double[2];
+        int firstRow = Math.floorDiv(range.y, cellHeight);
+        int lastRow = Math.floorDiv(range.y + range.height, cellHeight);
+        int firstColumn = Math.floorDiv(range.x, cellWidth);
+        int lastColumn = Math.floorDiv(range.x + range.width, cellWidth);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                point[0] = column * cellWidth + cellWidth / 2.0;
+                point[1] = row * cellHeight + cellHeight / 2.0;
+                rotate.transform(point, 0, point, 0, 1);
+                int x = (int) Math.round(point[0]) - halfWidth;
+                int y = (int) Math.round(point[1]) - halfHeight;
+                if (x < width && y < height && x + rotated.getWidth() > 0 && y + rotated.getHeight() > 0) {
+                    RasterCompositor.composite(mainImage, rotated, x, y, opacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * 将图片旋转渲染到包围盒大小的预乘ARGB图片中
+     */
+    private static BufferedImage rotateImage(BufferedImage image, double theta) {
+        AffineTransform rotate = AffineTransform.getRotateInstance(theta);
+        Rectangle bounds = rotate.createTransformedShape(
+                new Rectangle(0, 0, image.getWidth(), image.getHeight())).getBounds();
+        BufferedImage rotated = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = rotated.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.translate(-bounds.x, -bounds.y);
+            g2d.transform(rotate);
+            g2d.drawImage(image, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return rotated;
+    }
+
+    private static AffineTransform inverse(AffineTransform transform) {
+        try {
+            return transform.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            // 旋转变换总是可逆的
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * 将水印绘制到主图片上
      */
-    private static void addWatermarkToImage(BufferedImage mainImage, BufferedImage watermarkImage,
-                                            int x, int y) {
+    static void addWatermarkToImage(BufferedImage mainImage, BufferedImage watermarkImage,
+                                    int x, int y) {
+        addWatermarkToImage(mainImage, watermarkImage, x, y, 1.0f);
+    }
+
+    /**
+     * 按指定不透明度将水印绘制到主图片上
+     * <p>
+     * 常见的像素格式直接在像素数组上合成，其余格式使用Graphics2D
+     */
+    static void addWatermarkToImage(BufferedImage mainImage, BufferedImage watermarkImage,
+                                    int x, int y, float opacity) {
+        if (RasterCompositor.supports(mainImage)) {
+            RasterCompositor.composite(mainImage, watermarkImage, x, y, opacity);
+            return;
+        }
         Graphics2D g2d = mainImage.createGraphics();
         try {
-            // 设置透明度和抗锯齿
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            // 设置透明度，未缩放的drawImage不受抗锯齿影响，无需开启
+            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(0f, Math.min(1f, opacity))));
 
             // 绘制水印
             g2d.drawImage(watermarkImage, x, y, null);
@@ -0,0 +1,148 @@
+package com.deqiying.qtool;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 延迟统计器，保存最近若干次请求的耗时，用于计算延迟分位数（如对冲请求的触发时间）
+ * <p>
+ * 分位数基于排序后的样本快照计算，读取时不加锁；快照在新增{@value #REFRESH_RECORDS}个样本后
+ * 或距上次刷新超过1秒（且有新样本）时由一个线程重建，其余线程继续使用旧快照。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class LatencyTracker {
+    /**
+     * 默认保留的样本数
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * 计算分位数所需的最少样本数
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * 新增多少个样本后刷新快照
+     */
+    private static final int REFRESH_RECORDS = 64;
+
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long[] samples;
+    private int next;
+    private int size;
+    // 以下两个字段只在持有锁时写入
+    private volatile int changes;
+    private int generation;
+    // 排序后的样本快照
+    private volatile long[] sorted;
+    private volatile long sortedAt;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public LatencyTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 保留的最近样本数
+     */
+    public LatencyTracker(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0");
+        }
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param millis 耗时（毫秒）
+     */
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+        changes++;
+    }
+
+    /**
+     * 获取延迟分位数
+     *
+     * @param percentile 分位数，取值(0, 1]，例如0.95
+     * @return 分位数对应的耗时（毫秒），样本不足时返回-1
+     */
+    public long percentile(double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile取值范围为(0, 1]");
+        }
+        long[] snapshot = sorted;
+        if (isStale(snapshot) && refreshing.compareAndSet(false, true)) {
+            try {
+                snapshot = refresh();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        if (snapshot == null || snapshot.length < MIN_SAMPLES) {
+            return -1;
+        }
+        int index = (int) Math.ceil(percentile * snapshot.length) - 1;
+        return snapshot[Math.max(0, index)];
+    }
+
+    private boolean isStale(long[] snapshot) {
+        int pending = changes;
+        if (pending == 0) {
+            return false;
+        }
+        if (snapshot == null || snapshot.length < MIN_SAMPLES) {
+            return true;
+        }
+        return pending >= REFRESH_RECORDS || System.nanoTime() - sortedAt >= REFRESH_NANOS;
+    }
+
+    /**
+     * 复制样本在锁内完成，排序在锁外进行；期间被clear()时丢弃结果
+     */
+    private long[] refresh() {
+        long[] copy;
+        int gen;
+        synchronized (this) {
+            copy = Arrays.copyOf(samples, size);
+            changes = 0;
+            gen = generation;
+        }
+        Arrays.sort(copy);
+        synchronized (this) {
+            if (gen != generation) {
+                return sorted;
+            }
+            sortedAt = System.nanoTime();
+            sorted = copy;
+        }
+        return copy;
+    }
+
+    /**
+     * 当前样本数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 清空样本
+     */
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+        changes = 0;
+        generation++;
+        sorted = null;
+    }
+}
@@ -0,0 +1,240 @@
+package com.deqiying.qtool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * 直接操作像素数组的SRC_OVER合成器（内部使用）
+ * <p>
+ * 目标图片为{@code TYPE_INT_ARGB}、{@code TYPE_INT_RGB}、{@code TYPE_3BYTE_BGR}时，
+ * 直接读写{@link DataBufferInt}/{@link DataBufferByte}，只遍历水印覆盖的矩形（已按图片边缘裁剪），
+ * 绕过Graphics2D的渲染管线。算术与Java2D的8位alpha查表（mul8/div8）一致，结果与
+ * {@link java.awt.AlphaComposite#SRC_OVER}逐像素相同。
+ * <p>
+ * 注意：获取像素数组会使目标图片失去显存加速，对仅在内存中处理的图片没有影响。
+ *
+ * @author deqiying
+ */
+final class RasterCompositor {
+    // Java2D的8位乘法/除法查表，见AlphaMath.c
+    private static final byte[] MUL8 = new byte[256 * 256];
+    private static final byte[] DIV8 = new byte[256 * 256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            int inc = (i << 16) + (i << 8) + i;
+            int val = inc + (1 << 23);
+            for (int j = 1; j < 256; j++) {
+                MUL8[(i << 8) + j] = (byte) (val >>> 24);
+                val += inc;
+            }
+        }
+        for (int i = 1; i < 256; i++) {
+            int inc = (int) (((0xffL << 24) + i / 2) / i);
+            int val = 1 << 23;
+            for (int j = 0; j < i; j++) {
+                DIV8[(i << 8) + j] = (byte) (val >>> 24);
+                val += inc;
+            }
+            for (int j = i; j < 256; j++) {
+                DIV8[(i << 8) + j] = (byte) 0xff;
+            }
+        }
+    }
+
+    private RasterCompositor() {
+    }
+
+    /**
+     * 是否支持直接合成到该目标图片
+     */
+    static boolean supports(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                return raster.getDataBuffer() instanceof DataBufferInt
+                        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return raster.getDataBuffer() instanceof DataBufferByte
+                        && raster.getSampleModel() instanceof ComponentSampleModel;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 以SRC_OVER规则将水印合成到目标图片
+     *
+     * @param dst     目标图片，须满足{@link #supports(BufferedImage)}
+     * @param src     水印图片，任意格式
+     * @param x       水印左上角x坐标，可以为负或超出目标图片
+     * @param y       水印左上角y坐标，可以为负或超出目标图片
+     * @param opacity 全局不透明度，取值[0, 1]
+     */
+    static void composite(BufferedImage dst, BufferedImage src, int x, int y, float opacity) {
+        // 与目标图片求交，只处理可见部分
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + src.getWidth(), dst.getWidth());
+        int y1 = Math.min(y + src.getHeight(), dst.getHeight());
+        int extraA = (int) (Math.max(0f, Math.min(1f, opacity)) * 255.0 + 0.5);
+        if (x0 >= x1 || y0 >= y1 || extraA == 0) {
+            return;
+        }
+        int w = x1 - x0;
+        boolean srcPremultiplied = src.isAlphaPremultiplied();
+        int[] row = new int[w];
+        WritableRaster raster = dst.getRaster();
+        for (int py = y0; py < y1; py++) {
+            readSourceRow(src, x0 - x, py - y, w, row);
+            switch (dst.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                    blendIntRow(raster, x0, py, row, srcPremultiplied, extraA, true);
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    blendIntRow(raster, x0, py, row, srcPremultiplied, extraA, false);
+                    break;
+                default:
+                    blendBgrRow(raster, x0, py, row, srcPremultiplied, extraA);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 读取水印的一行像素（ARGB），INT_ARGB/INT_ARGB_PRE直接复制，其他格式经getRGB转换
+     */
+    private static void readSourceRow(BufferedImage src, int sx, int sy, int w, int[] row) {
+        int type = src.getType();
+        WritableRaster raster = src.getRaster();
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE)
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int offset = buffer.getOffset() + sm.getOffset(sx - raster.getSampleModelTranslateX(),
+                    sy - raster.getSampleModelTranslateY());
+            System.arraycopy(buffer.getData(), offset, row, 0, w);
+        } else {
+            // getRGB返回非预乘ARGB
+            src.getRGB(sx, sy, w, 1, row, 0, w);
+        }
+    }
+
+    private static void blendIntRow(WritableRaster raster, int x, int y, int[] row, boolean srcPremultiplied,
+                                    int extraA, boolean dstHasAlpha) {
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int[] data = buffer.getData();
+        int offset = buffer.getOffset() + sm.getOffset(x - raster.getSampleModelTranslateX(),
+                y - raster.getSampleModelTranslateY());
+        for (int i = 0; i < row.length; i++) {
+            int s = row[i];
+            int srcA = mul8(extraA, s >>> 24);
+            if (srcA == 0) {
+                continue;
+            }
+            int d = data[offset + i];
+            int dstA = dstHasAlpha ? d >>> 24 : 0xff;
+            int resA;
+            int r = (s >> 16) & 0xff;
+            int g = (s >> 8) & 0xff;
+            int b = s & 0xff;
+            if (srcA < 0xff) {
+                int srcF = srcPremultiplied ? extraA : srcA;
+                if (srcF < 0xff) {
+                    r = mul8(srcF, r);
+                    g = mul8(srcF, g);
+                    b = mul8(srcF, b);
+                }
+                int dstF = 0xff - srcA;
+                resA = srcA + mul8(dstF, dstA);
+                dstF = mul8(dstF, dstA);
+                if (dstF != 0) {
+                    int dr = (d >> 16) & 0xff;
+                    int dg = (d >> 8) & 0xff;
+                    int db = d & 0xff;
+                    if (dstF < 0xff) {
+                        dr = mul8(dstF, dr);
+                        dg = mul8(dstF, dg);
+                        db = mul8(dstF, db);
+                    }
+                    r += dr;
+                    g += dg;
+                    b += db;
+                }
+                if (dstHasAlpha && resA != 0 && resA < 0xff) {
+                    r = div8(r, resA);
+                    g = div8(g, resA);
+                    b = div8(b, resA);
+                }
+            } else {
+                if (srcPremultiplied && extraA < 0xff) {
+                    r = mul8(extraA, r);
+                    g = mul8(extraA, g);
+                    b = mul8(extraA, b);
+                }
+                resA = 0xff;
+            }
+            data[offset + i] = dstHasAlpha ? (resA << 24) | (r << 16) | (g << 8) | b : (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static void blendBgrRow(WritableRaster raster, int x, int y, int[] row, boolean srcPremultiplied,
+                                    int extraA) {
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+        byte[] data = buffer.getData();
+        int pixelStride = sm.getPixelStride();
+        int[] bandOffsets = sm.getBandOffsets();
+        // ComponentSampleModel.getOffset已包含第一个波段的偏移，这里自行计算像素起点
+        int offset = buffer.getOffset() + (y - raster.getSampleModelTranslateY()) * sm.getScanlineStride()
+                + (x - raster.getSampleModelTranslateX()) * pixelStride;
+        // 波段顺序为R、G、B，TYPE_3BYTE_BGR在内存中按B、G、R存放
+        int ro = bandOffsets[0];
+        int go = bandOffsets[1];
+        int bo = bandOffsets[2];
+        for (int i = 0, p = offset; i < row.length; i++, p += pixelStride) {
+            int s = row[i];
+            int srcA = mul8(extraA, s >>> 24);
+            if (srcA == 0) {
+                continue;
+            }
+            int r = (s >> 16) & 0xff;
+            int g = (s >> 8) & 0xff;
+            int b = s & 0xff;
+            if (srcA < 0xff) {
+                int srcF = srcPremultiplied ? extraA : srcA;
+                if (srcF < 0xff) {
+                    r = mul8(srcF, r);
+                    g = mul8(srcF, g);
+                    b = mul8(srcF, b);
+                }
+                int dstF = 0xff - srcA;
+                r += mul8(dstF, data[p + ro] & 0xff);
+                g += mul8(dstF, data[p + go] & 0xff);
+                b += mul8(dstF, data[p + bo] & 0xff);
+            } else if (srcPremultiplied && extraA < 0xff) {
+                r = mul8(extraA, r);
+                g = mul8(extraA, g);
+                b = mul8(extraA, b);
+            }
+            data[p + ro] = (byte) r;
+            data[p + go] = (byte) g;
+            data[p + bo] = (byte) b;
+        }
+    }
+
+    private static int mul8(int a, int b) {
+        return MUL8[(a << 8) + b] & 0xff;
+    }
+
+    private static int div8(int v, int a) {
+        return DIV8[(a << 8) + v] & 0xff;
+    }
+}
@@ -0,0 +1,297 @@
+package com.deqiying.qtool;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * 大图分块水印（内部使用）
+ * <p>
+ * 不将整张图片解码到内存，而是按水平条带（band）通过{@link ImageReadParam#setSourceRegion(Rectangle)}
+ * 按需读取，只对与水印相交的条带做合成，再以{@link RenderedImage}的形式交给编码器逐块拉取写出。
+ * 同一时刻内存中只保留一个条带，峰值内存与图片尺寸无关，只取决于条带大小。
+ * <p>
+ * 条带按顺序访问时每个只解码一次；JPEG等顺序编码格式读取每个条带时仍需从头扫描压缩数据，
+ * 以CPU时间换取内存。支持子采样，在读取时直接缩小图片。
+ *
+ * @author deqiying
+ */
+final class RegionWatermarker {
+    /**
+     * 默认单个条带的最大字节数：16MB
+     */
+    static final long DEFAULT_MAX_BAND_BYTES = 16L * 1024 * 1024;
+
+    private RegionWatermarker() {
+    }
+
+    /**
+     * 分块读取、添加水印并编码写出
+     *
+     * @param input          图片输入流，须支持随机访问（按区域读取时会回溯）
+     * @param watermarkImage 水印图片
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离（按输出尺寸计算）
+     * @param subsampling    子采样系数，1表示原尺寸，n表示宽高各缩小为1/n
+     * @param maxBandBytes   单个条带的最大字节数
+     * @param options        输出选项
+     * @param out            输出流，由调用方关闭
+     */
+    static void process(ImageInputStream input, BufferedImage watermarkImage, ImageWatermarkUtil.Position position,
+                        int margin, int subsampling, long maxBandBytes, ImageWatermarkUtil.OutputOptions options,
+                        OutputStream out) throws IOException {
+        if (subsampling <= 0) {
+            throw new IllegalArgumentException("subsampling必须大于0");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("无法识别的图片格式");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, false, true);
+            String format = ImageWatermarkUtil.resolveFormat(reader.getFormatName().toLowerCase(Locale.ROOT), options);
+            BandedImage image = new BandedImage(reader, watermarkImage, position, margin, subsampling, maxBandBytes,
+                    options.opacity, ImageWatermarkUtil.isJpeg(format));
+            ImageWatermarkUtil.encode(image, format, options, out, true);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 以条带为瓦片、按需解码的图片
+     */
+    private static final class BandedImage implements RenderedImage {
+        private final ImageReader reader;
+        private final BufferedImage watermarkImage;
+        private final Point watermarkPosition;
+        private final float opacity;
+        private final boolean opaque;
+        private final int subsampling;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int width;
+        private final int height;
+        private final int bandHeight;
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+        // 最近解码的条带，编码器通常按行顺序访问
+        private int cachedBand = -1;
+        private WritableRaster cachedRaster;
+
+        BandedImage(ImageReader reader, BufferedImage watermarkImage, ImageWatermarkUtil.Position position,
+                    int margin, int subsampling, long maxBandBytes, float opacity, boolean opaque)
+                throws IOException {
+            this.reader = reader;
+            this.watermarkImage = watermarkImage;
+            this.opacity = opacity;
+            this.opaque = opaque;
+            this.subsampling = subsampling;
+            this.sourceWidth = reader.getWidth(0);
+            this.sourceHeight = reader.getHeight(0);
+            this.width = (sourceWidth + subsampling - 1) / subsampling;
+            this.height = (sourceHeight + subsampling - 1) / subsampling;
+            this.watermarkPosition = ImageWatermarkUtil.calculatePosition(width, height, watermarkImage,
+                    position, margin);
+            this.bandHeight = bandHeight(reader, width, height, subsampling, maxBandBytes);
+            // 以第一个条带确定颜色模型，之后的条带解码为相同的格式
+            BufferedImage first = readBand(0);
+            this.colorModel = first.getColorModel();
+            this.sampleModel = first.getSampleModel().createCompatibleSampleModel(width, bandHeight);
+            this.cachedBand = 0;
+            this.cachedRaster = first.getRaster();
+        }
+
+        /**
+         * 条带高度（输出行数）：按字节上限计算，图片分块存储时对齐到块高度
+         */
+        private static int bandHeight(ImageReader reader, int width, int height, int subsampling,
+                                      long maxBandBytes) throws IOException {
+            // 按每像素4字节估算
+            long rows = Math.max(1, maxBandBytes / (4L * width));
+            if (reader.isImageTiled(0)) {
+                int tileRows = Math.max(1, reader.getTileHeight(0) / subsampling);
+                rows = Math.max(tileRows, rows / tileRows * tileRows);
+            }
+            return (int) Math.min(rows, height);
+        }
+
+        private BufferedImage readBand(int band) throws IOException {
+            int y = band * bandHeight;
+            int rows = Math.min(bandHeight, height - y);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int sourceY = y * subsampling;
+            param.setSourceRegion(new Rectangle(0, sourceY, sourceWidth,
+                    Math.min(rows * subsampling, sourceHeight - sourceY)));
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            BufferedImage image = reader.read(0, param);
+            if (opaque) {
+                image = ImageWatermarkUtil.toOpaque(image);
+            }
+            // 只合成与水印相交的条带
+            int wy = watermarkPosition.y - y;
+            if (wy < rows && wy + watermarkImage.getHeight() > 0) {
+                ImageWatermarkUtil.addWatermarkToImage(image, watermarkImage, watermarkPosition.x, wy, opacity);
+            }
+            return image;
+        }
+
+        private WritableRaster band(int band) {
+            if (band != cachedBand) {
+                // 先释放旧条带，避免两个条带同时驻留
+                cachedRaster = null;
+                try {
+                    cachedRaster = readBand(band).getRaster();
+                } catch (IOException e) {
+                    throw new IllegalStateException("读取图片区域失败", e);
+                }
+                cachedBand = band;
+            }
+            return cachedRaster;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return band(tileY).createTranslatedChild(0, tileY * bandHeight);
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            Rectangle bounds = rect.intersection(new Rectangle(0, 0, width, height));
+            WritableRaster raster = colorModel.createCompatibleWritableRaster(bounds.width, bounds.height)
+                    .createWritableTranslatedChild(bounds.x, bounds.y);
+            copyData(raster);
+            return raster;
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = colorModel.createCompatibleWritableRaster(width, height);
+            }
+            Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+            if (bounds.isEmpty()) {
+                return raster;
+            }
+            int firstBand = bounds.y / bandHeight;
+            int lastBand = (bounds.y + bounds.height - 1) / bandHeight;
+            for (int band = firstBand; band <= lastBand; band++) {
+                int bandY = band * bandHeight;
+                int y0 = Math.max(bounds.y, bandY);
+                int y1 = Math.min(bounds.y + bounds.height, bandY + bandHeight);
+                Raster source = band(band).createChild(bounds.x, y0 - bandY, bounds.width, y1 - y0,
+                        bounds.x, y0, null);
+                raster.setRect(source);
+            }
+            return raster;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + bandHeight - 1) / bandHeight;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return bandHeight;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.deqiying.qtool;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * 文字水印
+ * <p>
+ * 不可变对象，描述文字内容、字体、颜色、不透明度与旋转角度。渲染结果（预乘ARGB的水印图片）通过
+ * {@link WatermarkCache}缓存，以全部参数为键，相同参数的文字只做一次字形排版与抗锯齿渲染，
+ * 之后每张图片只需合成。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * TextWatermark text = new TextWatermark("© deqiying", new Font(Font.SANS_SERIF, Font.BOLD, 36),
+ *         Color.WHITE, 0.6f, -30);
+ * byte[] result = ImageWatermarkUtil.addTextWatermark(image, text, Position.BOTTOM_RIGHT, 20);
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class TextWatermark {
+    private final String text;
+    private final Font font;
+    private final Color color;
+    private final float opacity;
+    private final double rotation;
+
+    /**
+     * @param text     文字内容
+     * @param font     字体（含字族、样式与字号）
+     * @param color    颜色，其alpha与opacity相乘
+     * @param opacity  不透明度，取值[0, 1]
+     * @param rotation 旋转角度（度），正值为顺时针
+     */
+    public TextWatermark(String text, Font font, Color color, float opacity, double rotation) {
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException("文字不能为空");
+        }
+        this.text = text;
+        this.font = Objects.requireNonNull(font, "font");
+        this.color = Objects.requireNonNull(color, "color");
+        this.opacity = Math.max(0f, Math.min(1f, opacity));
+        this.rotation = rotation;
+    }
+
+    /**
+     * 以无衬线字体创建不旋转的文字水印
+     *
+     * @param text    文字内容
+     * @param size    字号
+     * @param color   颜色
+     * @param opacity 不透明度，取值[0, 1]
+     */
+    public TextWatermark(String text, int size, Color color, float opacity) {
+        this(text, new Font(Font.SANS_SERIF, Font.PLAIN, size), color, opacity, 0);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public float getOpacity() {
+        return opacity;
+    }
+
+    public double getRotation() {
+        return rotation;
+    }
+
+    /**
+     * 获取渲染后的水印图片，优先从{@link WatermarkCache#getDefault()}获取
+     *
+     * @return 预乘ARGB的水印图片，调用方不得修改
+     */
+    public BufferedImage toImage() {
+        return WatermarkCache.getDefault().get(this);
+    }
+
+    /**
+     * 排版并渲染文字，图片尺寸为旋转后文字的包围盒
+     */
+    BufferedImage render() {
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        TextLayout layout = new TextLayout(text, font, frc);
+        AffineTransform rotate = AffineTransform.getRotateInstance(Math.toRadians(rotation));
+        Shape outline = rotate.createTransformedShape(layout.getOutline(null));
+        Rectangle bounds = outline.getBounds();
+        // 抗锯齿边缘可能超出轮廓一个像素
+        bounds.grow(1, 1);
+        BufferedImage image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(),
+                    Math.round(color.getAlpha() * opacity)));
+            g2d.translate(-bounds.x, -bounds.y);
+            g2d.transform(rotate);
+            layout.draw(g2d, 0, 0);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TextWatermark)) return false;
+        TextWatermark that = (TextWatermark) o;
+        return Float.compare(opacity, that.opacity) == 0 && Double.compare(rotation, that.rotation) == 0
+                && text.equals(that.text) && font.equals(that.font) && color.equals(that.color);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, font, color, opacity, rotation);
+    }
+
+    @Override
+    public String toString() {
+        return "TextWatermark{text='" + text + "', font=" + font.getFontName() + "/" + font.getStyle() + "/"
+                + font.getSize2D() + ", color=" + color + ", opacity=" + opacity + ", rotation=" + rotation + '}';
+    }
+}
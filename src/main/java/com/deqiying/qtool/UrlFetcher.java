@@ -0,0 +1,800 @@
+package com.deqiying.qtool;
+
+import com.deqiying.qtool.net.HostResolver;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * URL请求执行器（内部使用）
+ * <p>
+ * 负责整体截止时间、手动跟随重定向、主机限流以及对冲请求。截止时间到达时由看门狗线程断开连接，
+ * 因此阻塞在建连或读取上的线程也能及时返回。异步请求在Java 21+上使用虚拟线程执行，
+ * 以便同时进行数万个请求；在更低版本上回退为有界线程池。
+ *
+ * @author deqiying
+ */
+class UrlFetcher {
+    private static final String USER_AGENT =
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36";
+    // 未设置截止时间时的默认超时，与原有行为保持一致
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10 * 60 * 1000;
+    private static final int DEFAULT_HEAD_TIMEOUT = 10 * 1000;
+
+    // 截止时间看门狗
+    private static final ScheduledThreadPoolExecutor WATCHDOG;
+    // 虚拟线程执行器，运行在Java 21以下时为null
+    private static final ExecutorService VIRTUAL_EXECUTOR = newVirtualThreadExecutor();
+    // 对冲请求线程池：对冲在调用线程中等待，使用不限线程数的线程池避免与异步线程池互相等待
+    private static final ExecutorService HEDGE_EXECUTOR = VIRTUAL_EXECUTOR != null
+            ? VIRTUAL_EXECUTOR : Executors.newCachedThreadPool(daemonThreadFactory("qtool-url-hedge"));
+    // 默认异步执行器：虚拟线程，或回退为有界线程池
+    private static final ExecutorService DEFAULT_ASYNC_EXECUTOR = VIRTUAL_EXECUTOR != null
+            ? VIRTUAL_EXECUTOR : newBoundedExecutor(Math.max(32, Runtime.getRuntime().availableProcessors() * 8));
+    // 当前使用的异步执行器
+    private static volatile Executor asyncExecutor = DEFAULT_ASYNC_EXECUTOR;
+
+    static {
+        WATCHDOG = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("qtool-url-watchdog"));
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    private UrlFetcher() {
+    }
+
+    /**
+     * 打开URL并返回响应流
+     */
+    static InputStream open(String url, UrlUtils.FetchOptions options) throws Exception {
+        Deadline deadline = Deadline.after(options.deadlineMillis);
+        if (options.hedgePercentile <= 0 || options.latencyTracker == null) {
+            return new Attempt(url, options, deadline).call();
+        }
+        long delay = options.latencyTracker.percentile(options.hedgePercentile);
+        if (delay < 0) {
+            // 样本不足，无法估计分位数
+            return new Attempt(url, options, deadline).call();
+        }
+        return hedged(url, options, deadline, Math.max(delay, options.minHedgeDelayMillis));
+    }
+
+    /**
+     * 异步打开URL
+     */
+    static CompletableFuture<InputStream> openAsync(String url, UrlUtils.FetchOptions options) {
+        return supplyAsync(() -> open(url, options));
+    }
+
+    /**
+     * 异步跟随重定向，获取最终URL
+     */
+    static CompletableFuture<UrlUtils.RedirectResult> resolveRedirectsAsync(String shortUrl, UrlUtils.FetchOptions options) {
+        return supplyAsync(() -> resolveRedirects(shortUrl, options));
+    }
+
+    /**
+     * 设置异步执行器，为null时恢复默认执行器
+     */
+    static void setAsyncExecutor(Executor executor) {
+        asyncExecutor = executor == null ? DEFAULT_ASYNC_EXECUTOR : executor;
+    }
+
+    static boolean usesVirtualThreads() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * 在异步执行器上执行任务
+     */
+    static <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，项目以Java 8为编译目标，运行在Java 21以下时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 创建有界线程池，任务在队列中等待，空闲线程会被回收
+     */
+    private static ExecutorService newBoundedExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreadFactory("qtool-url-async"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 以HEAD请求跟随重定向，获取最终URL
+     */
+    static UrlUtils.RedirectResult resolveRedirects(String shortUrl, UrlUtils.FetchOptions options) throws Exception {
+        Deadline deadline = Deadline.after(options.deadlineMillis);
+
+        UrlUtils.RedirectResult result = new UrlUtils.RedirectResult();
+        result.originalUrl = shortUrl;
+        result.redirectChain = new ArrayList<>();
+
+        String currentUrl = shortUrl;
+        int redirectCount = 0;
+
+        while (redirectCount < options.maxRedirects) {
+            URI uri = UrlUtils.createEncodedUri(currentUrl);
+            HostThrottle.Permit permit = acquirePermit(options, uri.getHost(), deadline);
+            HttpURLConnection connection = null;
+            ScheduledFuture<?> watchdog = null;
+            try {
+                // 获取许可后才检查截止时间，超时也要经过finally归还许可
+                connection = connect(uri, options, deadline, c -> {
+                    int timeout = deadline.timeoutMillis(DEFAULT_HEAD_TIMEOUT);
+                    c.setRequestMethod("HEAD");
+                    c.setConnectTimeout(timeout);
+                    c.setReadTimeout(timeout);
+                    c.setInstanceFollowRedirects(false);
+                    c.setRequestProperty("User-Agent", USER_AGENT);
+                });
+                watchdog = deadline.watch(connection);
+
+                int responseCode = connection.getResponseCode();
+                reportResponse(options, uri.getHost(), connection, responseCode);
+
+                if (isRedirect(responseCode)) {
+                    String location = connection.getHeaderField("Location");
+                    if (location == null || location.trim().isEmpty()) {
+                        result.finalUrl = currentUrl;
+                        result.redirectCount = redirectCount;
+                        return result;
+                    }
+
+                    // 记录重定向信息
+                    UrlUtils.RedirectInfo redirectInfo = new UrlUtils.RedirectInfo();
+                    redirectInfo.fromUrl = currentUrl;
+                    redirectInfo.toUrl = location;
+                    redirectInfo.statusCode = responseCode;
+                    result.redirectChain.add(redirectInfo);
+
+                    currentUrl = UrlUtils.resolveLocation(currentUrl, location);
+                    redirectCount++;
+                } else if (responseCode >= 200 && responseCode < 300) {
+                    result.finalUrl = currentUrl;
+                    result.redirectCount = redirectCount;
+                    return result;
+                } else {
+                    throw new Exception("获取最终URL失败，HTTP状态码: " + responseCode);
+                }
+            } catch (IOException e) {
+                throw deadline.translate(e);
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                permit.close();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 对冲请求：首个请求在指定延迟内未响应时发出副本请求，先成功者胜出，其余请求被中止
+     */
+    private static InputStream hedged(String url, UrlUtils.FetchOptions options, Deadline deadline,
+                                      long delayMillis) throws Exception {
+        CompletionService<InputStream> completionService = new ExecutorCompletionService<>(HEDGE_EXECUTOR);
+        List<Attempt> attempts = new ArrayList<>(2);
+        List<Future<InputStream>> futures = new ArrayList<>(2);
+        Attempt winner = null;
+        try {
+            Attempt first = new Attempt(url, options, deadline);
+            attempts.add(first);
+            futures.add(completionService.submit(first));
+            int pending = 1;
+            boolean hedgeSent = false;
+            Throwable failure = null;
+
+            while (pending > 0) {
+                Future<InputStream> done;
+                if (!hedgeSent) {
+                    done = completionService.poll(deadline.capMillis(delayMillis), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        deadline.check();
+                        Attempt hedge = new Attempt(url, options, deadline);
+                        attempts.add(hedge);
+                        futures.add(completionService.submit(hedge));
+                        pending++;
+                        hedgeSent = true;
+                        continue;
+                    }
+                } else if (deadline.bounded) {
+                    done = completionService.poll(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        throw new SocketTimeoutException("请求超过截止时间");
+                    }
+                } else {
+                    done = completionService.take();
+                }
+                pending--;
+                try {
+                    InputStream in = done.get();
+                    winner = attempts.get(futures.indexOf(done));
+                    return in;
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    if (!hedgeSent) {
+                        // 首个请求在对冲之前已失败，对冲不是重试，直接抛出
+                        break;
+                    }
+                }
+            }
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            }
+            throw new Exception("请求失败", failure);
+        } finally {
+            for (Attempt attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * 建连前对连接的设置（请求方法、超时、请求头等），换用下一个地址重新建连时会再次调用
+     */
+    @FunctionalInterface
+    private interface Setup {
+        void apply(HttpURLConnection connection) throws IOException;
+    }
+
+    /**
+     * 创建连接并建连。设置了解析器时先解析并校验主机，并固定连接到校验过的地址，JDK不再解析：
+     * HTTP请求以该地址作为HTTP代理，请求行为绝对URI、Host头保持原主机名；
+     * HTTPS请求换用只连接该地址的{@link PinnedSocketFactory}，TLS握手仍使用原主机名，SNI与证书主机名校验不受影响。
+     * 某个地址无法建连时，在截止时间内依次尝试下一个地址。
+     * <p>
+     * {@link ProxySelector}为该URI选择了代理（如设置了http.proxyHost且不在http.nonProxyHosts中）时经该代理建连，
+     * 解析结果仍会被校验，但实际连接的地址由代理自行解析
+     */
+    private static HttpURLConnection connect(URI uri, UrlUtils.FetchOptions options, Deadline deadline, Setup setup)
+            throws IOException {
+        URL url = uri.toURL();
+        if (options.resolver == null) {
+            return connect((HttpURLConnection) url.openConnection(), deadline, setup);
+        }
+        InetAddress[] addresses = resolve(uri.getHost(), options.resolver, deadline);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(uri.getHost());
+        }
+        Proxy proxy = selectProxy(uri);
+        if (proxy.type() != Proxy.Type.DIRECT) {
+            return connect((HttpURLConnection) url.openConnection(proxy), deadline, setup);
+        }
+        int port = uri.getPort() < 0 ? url.getDefaultPort() : uri.getPort();
+        boolean http = "http".equalsIgnoreCase(uri.getScheme());
+        for (int i = 0; ; i++) {
+            // 地址不带主机名，避免JDK按主机名重新解析
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getByAddress(addresses[i].getAddress()), port);
+            HttpURLConnection connection;
+            if (http) {
+                connection = (HttpURLConnection) url.openConnection(new Proxy(Proxy.Type.HTTP, target));
+            } else {
+                connection = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
+                if (connection instanceof HttpsURLConnection) {
+                    HttpsURLConnection https = (HttpsURLConnection) connection;
+                    https.setSSLSocketFactory(new PinnedSocketFactory(https.getSSLSocketFactory(), target));
+                }
+            }
+            try {
+                return connect(connection, deadline, setup);
+            } catch (ConnectException | NoRouteToHostException | SocketTimeoutException e) {
+                if (i == addresses.length - 1 || deadline.expired()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 设置并建连，建连（含TLS握手）期间到达截止时间时断开连接；失败时断开连接
+     */
+    private static HttpURLConnection connect(HttpURLConnection connection, Deadline deadline, Setup setup)
+            throws IOException {
+        ScheduledFuture<?> watchdog = null;
+        boolean connected = false;
+        try {
+            setup.apply(connection);
+            watchdog = deadline.watch(connection);
+            connection.connect();
+            connected = true;
+            return connection;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            if (!connected) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 系统代理设置为该URI选择的第一个代理，未配置时为直连
+     */
+    private static Proxy selectProxy(URI uri) {
+        ProxySelector selector = ProxySelector.getDefault();
+        List<Proxy> proxies = selector == null ? null : selector.select(uri);
+        return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+    }
+
+    /**
+     * 解析主机名，设置了截止时间时在对冲线程池中解析，到达截止时间即抛出超时异常（解析线程自行结束）
+     */
+    private static InetAddress[] resolve(String host, HostResolver resolver, Deadline deadline) throws IOException {
+        if (!deadline.bounded) {
+            return resolver.resolve(host);
+        }
+        deadline.check();
+        CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+        try {
+            HEDGE_EXECUTOR.execute(() -> {
+                try {
+                    future.complete(resolver.resolve(host));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("无法提交主机名解析任务: " + host, e);
+        }
+        try {
+            return deadline.bound(future).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("解析主机名时被中断: " + host);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("解析主机名失败: " + host, cause);
+        }
+    }
+
+    /**
+     * 获取主机限流许可，等待时间受截止时间约束，等待超时与截止时间到达一样抛出SocketTimeoutException
+     */
+    private static HostThrottle.Permit acquirePermit(UrlUtils.FetchOptions options, String host,
+                                                     Deadline deadline) throws Exception {
+        if (options.hostThrottle == null) {
+            return HostThrottle.NOOP_PERMIT;
+        }
+        try {
+            return options.hostThrottle.acquire(host, deadline.bounded ? deadline.timeoutMillis(0) : 0);
+        } catch (TimeoutException e) {
+            SocketTimeoutException timeout = new SocketTimeoutException("请求超过截止时间");
+            timeout.initCause(e);
+            throw timeout;
+        }
+    }
+
+    /**
+     * 将响应码反馈给主机限流器
+     */
+    private static void reportResponse(UrlUtils.FetchOptions options, String host, HttpURLConnection connection,
+                                       int responseCode) {
+        if (options.hostThrottle != null) {
+            options.hostThrottle.onResponse(host, responseCode, connection.getHeaderField("Retry-After"));
+        }
+    }
+
+    static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM ||
+                responseCode == HttpURLConnection.HTTP_MOVED_TEMP ||
+                responseCode == HttpURLConnection.HTTP_SEE_OTHER ||
+                responseCode == 307 ||
+                responseCode == 308;
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 单次GET请求（含重定向），可被中止
+     */
+    private static class Attempt implements Callable<InputStream> {
+        private final String url;
+        private final UrlUtils.FetchOptions options;
+        private final Deadline deadline;
+        private HttpURLConnection connection;
+        private InputStream result;
+        private boolean aborted;
+
+        Attempt(String url, UrlUtils.FetchOptions options, Deadline deadline) {
+            this.url = url;
+            this.options = options;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public InputStream call() throws Exception {
+            long start = System.nanoTime();
+            String currentUrl = url;
+            for (int redirects = 0; ; redirects++) {
+                URI uri = UrlUtils.createEncodedUri(currentUrl);
+                HostThrottle.Permit permit = acquirePermit(options, uri.getHost(), deadline);
+                HttpURLConnection connection = null;
+                ScheduledFuture<?> watchdog = null;
+                boolean success = false;
+                try {
+                    // 获取许可后才检查截止时间，超时也要经过finally归还许可
+                    connection = connect(uri, options, deadline, c -> {
+                        int timeout = deadline.timeoutMillis(0);
+                        c.setRequestMethod("GET");
+                        c.setInstanceFollowRedirects(false);
+                        c.setConnectTimeout(deadline.bounded ? timeout : DEFAULT_CONNECT_TIMEOUT);
+                        c.setReadTimeout(timeout);
+                        c.setRequestProperty("Accept-Encoding", UrlUtils.ACCEPT_ENCODING);
+                        if (!attach(c)) {
+                            throw new IOException("请求已取消");
+                        }
+                    });
+                    watchdog = deadline.watch(connection);
+                    int responseCode = connection.getResponseCode();
+                    reportResponse(options, uri.getHost(), connection, responseCode);
+                    if (isRedirect(responseCode)) {
+                        String location = connection.getHeaderField("Location");
+                        if (location == null || location.trim().isEmpty()) {
+                            throw new Exception("重定向缺少Location,响应码: " + responseCode);
+                        }
+                        if (redirects >= options.maxRedirects) {
+                            throw new Exception("重定向次数超过上限: " + options.maxRedirects);
+                        }
+                        currentUrl = UrlUtils.resolveLocation(currentUrl, location);
+                        continue;
+                    }
+                    if (responseCode != HttpURLConnection.HTTP_OK) {
+                        throw new Exception("无法打开URL,响应码: " + responseCode);
+                    }
+                    if (options.latencyTracker != null) {
+                        options.latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                    InputStream in = new FetchInputStream(UrlUtils.getResponseStream(connection, options.rawEncoding),
+                            deadline, watchdog, permit);
+                    if (!publish(in)) {
+                        in.close();
+                        throw new IOException("请求已取消");
+                    }
+                    success = true;
+                    return in;
+                } catch (IOException e) {
+                    throw deadline.translate(e);
+                } finally {
+                    if (!success) {
+                        if (watchdog != null) {
+                            watchdog.cancel(false);
+                        }
+                        if (connection != null) {
+                            connection.disconnect();
+                        }
+                        permit.close();
+                    }
+                }
+            }
+        }
+
+        private synchronized boolean attach(HttpURLConnection connection) {
+            this.connection = connection;
+            return !aborted;
+        }
+
+        private synchronized boolean publish(InputStream in) {
+            if (aborted) {
+                return false;
+            }
+            this.result = in;
+            return true;
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            if (result != null) {
+                try {
+                    result.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 截止时间
+     */
+    static final class Deadline {
+        private static final Deadline NONE = new Deadline(false, 0);
+
+        final boolean bounded;
+        private final long nanos;
+
+        private Deadline(boolean bounded, long nanos) {
+            this.bounded = bounded;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @param millis 距现在的毫秒数，小于等于0表示不限制
+         */
+        static Deadline after(long millis) {
+            return millis > 0 ? new Deadline(true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis)) : NONE;
+        }
+
+        long remainingNanos() {
+            return nanos - System.nanoTime();
+        }
+
+        boolean expired() {
+            return bounded && remainingNanos() <= 0;
+        }
+
+        void check() throws SocketTimeoutException {
+            if (expired()) {
+                throw new SocketTimeoutException("请求超过截止时间");
+            }
+        }
+
+        /**
+         * 计算单次连接可用的超时时间，不超过defaultMillis（0表示不限制）
+         */
+        int timeoutMillis(int defaultMillis) throws SocketTimeoutException {
+            if (!bounded) {
+                return defaultMillis;
+            }
+            check();
+            long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+            if (defaultMillis > 0) {
+                remaining = Math.min(remaining, defaultMillis);
+            }
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        long capMillis(long millis) {
+            return bounded ? Math.max(0, Math.min(millis, TimeUnit.NANOSECONDS.toMillis(remainingNanos()))) : millis;
+        }
+
+        /**
+         * 截止时间到达时断开连接
+         */
+        ScheduledFuture<?> watch(HttpURLConnection connection) {
+            if (!bounded) {
+                return null;
+            }
+            return WATCHDOG.schedule(connection::disconnect, Math.max(0, remainingNanos()), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 截止时间到达时以超时异常完成future，future先完成时取消计时
+         */
+        <T> CompletableFuture<T> bound(CompletableFuture<T> future) {
+            if (!bounded || future.isDone()) {
+                return future;
+            }
+            ScheduledFuture<?> timer = WATCHDOG.schedule(
+                    () -> future.completeExceptionally(new SocketTimeoutException("请求超过截止时间")),
+                    Math.max(0, remainingNanos()), TimeUnit.NANOSECONDS);
+            future.whenComplete((result, error) -> timer.cancel(false));
+            return future;
+        }
+
+        /**
+         * 截止时间已过时将IO异常转换为超时异常
+         */
+        IOException translate(IOException e) {
+            if (!expired() || e instanceof SocketTimeoutException) {
+                return e;
+            }
+            SocketTimeoutException timeout = new SocketTimeoutException("请求超过截止时间");
+            timeout.initCause(e);
+            return timeout;
+        }
+    }
+
+    /**
+     * 只连接到固定地址的SSLSocketFactory
+     * <p>
+     * JDK建立HTTPS连接时先通过{@link #createSocket()}创建未连接的套接字并连接，此时忽略传入的目标地址，改为连接固定的地址；
+     * 再通过{@link #createSocket(Socket, String, int, boolean)}以原主机名在其上建立TLS，SNI与证书主机名校验照常进行。
+     * 每个连接使用独立的实例，JDK的keep-alive缓存按实例区分，不会复用到未经校验的连接。
+     */
+    private static final class PinnedSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final InetSocketAddress target;
+
+        PinnedSocketFactory(SSLSocketFactory delegate, InetSocketAddress target) {
+            this.delegate = delegate;
+            this.target = target;
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    super.connect(target, timeout);
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return connect(host, null, 0);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return connect(host, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return connect(host.getHostAddress(), null, 0);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return connect(address.getHostAddress(), localAddress, localPort);
+        }
+
+        private Socket connect(String host, InetAddress localAddress, int localPort) throws IOException {
+            Socket socket = new Socket();
+            try {
+                if (localAddress != null || localPort != 0) {
+                    socket.bind(new InetSocketAddress(localAddress, localPort));
+                }
+                socket.connect(target);
+                return delegate.createSocket(socket, host, target.getPort(), true);
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+
+    /**
+     * 响应体输入流：在截止时间内读取，关闭时取消看门狗并归还主机许可
+     */
+    private static class FetchInputStream extends FilterInputStream {
+        private final Deadline deadline;
+        private final ScheduledFuture<?> watchdog;
+        private final HostThrottle.Permit permit;
+
+        FetchInputStream(InputStream in, Deadline deadline, ScheduledFuture<?> watchdog, HostThrottle.Permit permit) {
+            super(in);
+            this.deadline = deadline;
+            this.watchdog = watchdog;
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            deadline.check();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw deadline.translate(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            deadline.check();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw deadline.translate(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            try {
+                super.close();
+            } finally {
+                permit.close();
+            }
+        }
+    }
+}
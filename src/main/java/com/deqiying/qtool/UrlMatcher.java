@@ -0,0 +1,534 @@
+package com.deqiying.qtool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * URL多规则匹配索引
+ * <p>
+ * 规则格式为{@code [scheme://]主机[/路径]}：
+ * <ul>
+ *     <li>主机：{@code example.com}精确匹配；{@code *.example.com}匹配其任意子域名（不含example.com本身）；{@code *}匹配任意主机</li>
+ *     <li>路径：省略时匹配任意路径；以{@code *}结尾表示前缀匹配，例如{@code /path/*}；否则精确匹配</li>
+ * </ul>
+ * 主机不区分大小写，端口、scheme与主机末尾的点不参与匹配（规则与URL中均可出现），路径按原始（未解码）形式比较。
+ * <p>
+ * 规则被编译为按标签反转的主机字典树，每个主机节点挂接路径前缀字典树，
+ * 查询耗时只与URL长度有关，与规则数量无关。{@link #rebuild(Map)}先完整编译新索引再原子替换，
+ * 替换期间的查询不受影响。
+ *
+ * @param <T> 规则关联的值类型
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class UrlMatcher<T> {
+
+    private volatile Index<T> index;
+
+    /**
+     * @param rules 规则到关联值的映射
+     */
+    public UrlMatcher(Map<String, T> rules) {
+        this.index = new Index<>(rules);
+    }
+
+    /**
+     * 以规则本身作为关联值创建匹配器
+     *
+     * @param rules 规则集合
+     * @return 匹配器
+     */
+    public static UrlMatcher<String> of(Collection<String> rules) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String rule : rules) {
+            map.put(rule, rule);
+        }
+        return new UrlMatcher<>(map);
+    }
+
+    /**
+     * 使用新的规则集重建索引，编译完成后原子替换
+     *
+     * @param rules 规则到关联值的映射
+     */
+    public void rebuild(Map<String, T> rules) {
+        this.index = new Index<>(rules);
+    }
+
+    /**
+     * 当前索引中的规则数
+     */
+    public int size() {
+        return index.values.length;
+    }
+
+    /**
+     * 查找URL匹配的全部规则
+     *
+     * @param url URL字符串
+     * @return 匹配规则的关联值（按规则加入顺序），无匹配或URL无法解析时返回空列表
+     */
+    public List<T> match(String url) {
+        int[] range = parse(url);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        Index<T> current = index;
+        IntList ids = new IntList();
+        current.match(url, range[0], range[1], url, range[2], range[3], ids);
+        return current.values(ids);
+    }
+
+    /**
+     * 查找主机与路径匹配的全部规则
+     *
+     * @param host 主机名
+     * @param path 路径，null视为空路径
+     * @return 匹配规则的关联值（按规则加入顺序）
+     */
+    public List<T> match(String host, String path) {
+        if (host == null || host.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Index<T> current = index;
+        String p = path == null ? "" : path;
+        IntList ids = new IntList();
+        current.match(host, 0, host.length(), p, 0, p.length(), ids);
+        return current.values(ids);
+    }
+
+    /**
+     * 判断URL是否匹配任意一条规则，命中第一条规则后立即返回
+     *
+     * @param url URL字符串
+     * @return 是否匹配
+     */
+    public boolean matchesAny(String url) {
+        int[] range = parse(url);
+        return range != null && index.match(url, range[0], range[1], url, range[2], range[3], null);
+    }
+
+    /**
+     * 定位URL中的主机（去除用户信息与端口）与路径，返回{主机起点, 主机终点, 路径起点, 路径终点}，无法解析时返回null
+     */
+    private static int[] parse(String url) {
+        if (url == null) {
+            return null;
+        }
+        int length = url.length();
+        int start = authorityStart(url);
+        int authorityEnd = start;
+        while (authorityEnd < length) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            authorityEnd++;
+        }
+        // 去除用户信息
+        int at = url.lastIndexOf('@', authorityEnd - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        int hostEnd = authorityEnd;
+        if (start < authorityEnd && url.charAt(start) == '[') {
+            int close = url.indexOf(']', start);
+            if (close < 0 || close > authorityEnd) {
+                return null;
+            }
+            hostEnd = close + 1;
+        } else {
+            int colon = url.indexOf(':', start);
+            if (colon >= 0 && colon < authorityEnd) {
+                hostEnd = colon;
+            }
+            // 完全限定域名末尾的点不参与匹配
+            if (hostEnd - start > 1 && url.charAt(hostEnd - 1) == '.') {
+                hostEnd--;
+            }
+        }
+        if (hostEnd <= start) {
+            return null;
+        }
+        int pathEnd = authorityEnd;
+        while (pathEnd < length) {
+            char c = url.charAt(pathEnd);
+            if (c == '?' || c == '#') {
+                break;
+            }
+            pathEnd++;
+        }
+        return new int[]{start, hostEnd, authorityEnd, pathEnd};
+    }
+
+    /**
+     * 规则中的主机：与URL一样去除端口与末尾的点，并转为小写
+     */
+    private static String ruleHost(String authority) {
+        String host = authority;
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            if (close > 0) {
+                host = host.substring(0, close + 1);
+            }
+        } else {
+            int colon = host.indexOf(':');
+            if (colon >= 0) {
+                host = host.substring(0, colon);
+            }
+            if (host.length() > 1 && host.endsWith(".")) {
+                host = host.substring(0, host.length() - 1);
+            }
+        }
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 跳过协议部分，返回"://"之后的下标；"://"只在第一个'/'、'?'或'#'之前出现时才算协议，
+     * 避免把查询参数中的URL（如?next=http://evil.com）当作主机
+     */
+    private static int authorityStart(String url) {
+        int scheme = url.indexOf("://");
+        if (scheme < 0) {
+            return 0;
+        }
+        for (int i = 0; i < scheme; i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return 0;
+            }
+        }
+        return scheme + 3;
+    }
+
+    /**
+     * 编译后的不可变索引
+     */
+    private static final class Index<T> {
+        // 主机字典树，边为反转主机名的字符
+        private final Trie hosts;
+        // 主机节点 -> 精确主机规则的路径树根节点，-1表示无
+        private final int[] exactRoot;
+        // 主机节点 -> 子域名通配规则的路径树根节点，-1表示无
+        private final int[] wildcardRoot;
+        // 任意主机规则的路径树根节点
+        private final int anyHostRoot;
+
+        // 所有路径字典树共用的节点数组
+        private final Trie paths;
+        // 路径节点 -> 前缀规则/精确规则（CSR存储）
+        private final int[] prefixStart;
+        private final int[] exactStart;
+        private final int[] ruleIds;
+
+        private final T[] values;
+
+        @SuppressWarnings("unchecked")
+        Index(Map<String, T> rules) {
+            values = (T[]) new Object[rules.size()];
+            HostNode hostRoot = new HostNode();
+            PathNode anyHost = null;
+            int id = 0;
+            for (Map.Entry<String, T> e : rules.entrySet()) {
+                values[id] = e.getValue();
+                String rule = e.getKey().trim();
+                rule = rule.substring(authorityStart(rule));
+                int slash = rule.indexOf('/');
+                String host = ruleHost(slash < 0 ? rule : rule.substring(0, slash));
+                String path = slash < 0 ? "*" : rule.substring(slash);
+                if (host.isEmpty()) {
+                    throw new IllegalArgumentException("规则缺少主机: " + e.getKey());
+                }
+
+                PathNode pathRoot;
+                if ("*".equals(host)) {
+                    pathRoot = anyHost == null ? (anyHost = new PathNode()) : anyHost;
+                } else {
+                    boolean wildcard = host.startsWith("*.");
+                    String suffix = wildcard ? host.substring(2) : host;
+                    if (suffix.indexOf('*') >= 0) {
+                        throw new IllegalArgumentException("仅支持以*.开头的主机通配: " + e.getKey());
+                    }
+                    HostNode node = hostRoot;
+                    for (int i = suffix.length() - 1; i >= 0; i--) {
+                        node = node.children.computeIfAbsent(suffix.charAt(i), c -> new HostNode());
+                    }
+                    if (wildcard) {
+                        pathRoot = node.wildcard == null ? (node.wildcard = new PathNode()) : node.wildcard;
+                    } else {
+                        pathRoot = node.exact == null ? (node.exact = new PathNode()) : node.exact;
+                    }
+                }
+
+                boolean prefix = path.endsWith("*");
+                String literal = prefix ? path.substring(0, path.length() - 1) : path;
+                if (literal.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("路径仅支持以*结尾的前缀通配: " + e.getKey());
+                }
+                PathNode node = pathRoot;
+                for (int i = 0; i < literal.length(); i++) {
+                    node = node.children.computeIfAbsent(literal.charAt(i), c -> new PathNode());
+                }
+                (prefix ? node.prefix : node.exact).add(id);
+                id++;
+            }
+
+            // 扁平化主机树，同时收集所有路径树根节点
+            List<HostNode> hostNodes = new ArrayList<>();
+            hosts = Trie.flatten(hostRoot, n -> n.children, hostNodes);
+            List<PathNode> roots = new ArrayList<>();
+            if (anyHost != null) {
+                roots.add(anyHost);
+            }
+            for (HostNode node : hostNodes) {
+                if (node.exact != null) {
+                    roots.add(node.exact);
+                }
+                if (node.wildcard != null) {
+                    roots.add(node.wildcard);
+                }
+            }
+            List<PathNode> pathNodes = new ArrayList<>();
+            paths = Trie.flattenForest(roots, n -> n.children, pathNodes);
+            Map<PathNode, Integer> pathIndex = new IdentityHashMap<>();
+            for (int i = 0; i < pathNodes.size(); i++) {
+                pathIndex.put(pathNodes.get(i), i);
+            }
+
+            exactRoot = new int[hostNodes.size()];
+            wildcardRoot = new int[hostNodes.size()];
+            for (int i = 0; i < hostNodes.size(); i++) {
+                HostNode node = hostNodes.get(i);
+                exactRoot[i] = node.exact == null ? -1 : pathIndex.get(node.exact);
+                wildcardRoot[i] = node.wildcard == null ? -1 : pathIndex.get(node.wildcard);
+            }
+            anyHostRoot = anyHost == null ? -1 : pathIndex.get(anyHost);
+
+            prefixStart = new int[pathNodes.size() + 1];
+            exactStart = new int[pathNodes.size() + 1];
+            int total = 0;
+            for (PathNode node : pathNodes) {
+                total += node.prefix.size() + node.exact.size();
+            }
+            ruleIds = new int[total];
+            int pos = 0;
+            for (int i = 0; i < pathNodes.size(); i++) {
+                PathNode node = pathNodes.get(i);
+                prefixStart[i] = pos;
+                for (int r : node.prefix) {
+                    ruleIds[pos++] = r;
+                }
+                exactStart[i] = pos;
+                for (int r : node.exact) {
+                    ruleIds[pos++] = r;
+                }
+            }
+            prefixStart[pathNodes.size()] = pos;
+            exactStart[pathNodes.size()] = pos;
+        }
+
+        /**
+         * 匹配主机与路径，ids为null时命中第一条规则即返回
+         *
+         * @return 是否有规则命中
+         */
+        boolean match(String host, int hostStart, int hostEnd, String path, int pathStart, int pathEnd, IntList ids) {
+            if (pathStart == pathEnd) {
+                // 空路径等同于根路径
+                path = "/";
+                pathStart = 0;
+                pathEnd = 1;
+            }
+            boolean matched = false;
+            if (anyHostRoot >= 0 && matchPath(anyHostRoot, path, pathStart, pathEnd, ids)) {
+                if (ids == null) {
+                    return true;
+                }
+                matched = true;
+            }
+            int node = 0;
+            for (int i = hostEnd - 1; i >= hostStart; i--) {
+                char c = Character.toLowerCase(host.charAt(i));
+                // 已消费完整的后缀标签且前面还有子域名，检查*.后缀规则
+                if (c == '.' && wildcardRoot[node] >= 0 && matchPath(wildcardRoot[node], path, pathStart, pathEnd, ids)) {
+                    if (ids == null) {
+                        return true;
+                    }
+                    matched = true;
+                }
+                node = hosts.child(node, c);
+                if (node < 0) {
+                    return matched;
+                }
+            }
+            if (exactRoot[node] >= 0 && matchPath(exactRoot[node], path, pathStart, pathEnd, ids)) {
+                matched = true;
+            }
+            return matched;
+        }
+
+        /**
+         * 沿路径树匹配，返回是否有规则命中
+         */
+        private boolean matchPath(int root, String path, int start, int end, IntList ids) {
+            boolean matched = false;
+            int node = root;
+            for (int i = start; ; i++) {
+                if (exactStart[node] > prefixStart[node]) {
+                    if (ids == null) {
+                        return true;
+                    }
+                    ids.addAll(ruleIds, prefixStart[node], exactStart[node]);
+                    matched = true;
+                }
+                if (i >= end) {
+                    break;
+                }
+                node = paths.child(node, path.charAt(i));
+                if (node < 0) {
+                    return matched;
+                }
+            }
+            // 路径已完全消费，检查精确规则
+            if (prefixStart[node + 1] > exactStart[node]) {
+                if (ids == null) {
+                    return true;
+                }
+                ids.addAll(ruleIds, exactStart[node], prefixStart[node + 1]);
+                matched = true;
+            }
+            return matched;
+        }
+
+        /**
+         * 按规则加入顺序输出关联值
+         */
+        List<T> values(IntList ids) {
+            if (ids.size == 0) {
+                return Collections.emptyList();
+            }
+            Arrays.sort(ids.data, 0, ids.size);
+            List<T> result = new ArrayList<>(ids.size);
+            for (int i = 0; i < ids.size; i++) {
+                result.add(values[ids.data[i]]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 规则编号收集器
+     */
+    private static final class IntList {
+        int[] data = new int[8];
+        int size;
+
+        void addAll(int[] src, int from, int to) {
+            int n = to - from;
+            if (size + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+            }
+            System.arraycopy(src, from, data, size, n);
+            size += n;
+        }
+    }
+
+    /**
+     * 构建阶段的主机树节点
+     */
+    private static final class HostNode {
+        final TreeMap<Character, HostNode> children = new TreeMap<>();
+        PathNode exact;
+        PathNode wildcard;
+    }
+
+    /**
+     * 构建阶段的路径树节点
+     */
+    private static final class PathNode {
+        final TreeMap<Character, PathNode> children = new TreeMap<>();
+        final List<Integer> prefix = new ArrayList<>(1);
+        final List<Integer> exact = new ArrayList<>(1);
+    }
+
+    /**
+     * 数组形式的字符字典树，每个节点的子边按字符排序连续存放，查找时二分
+     */
+    private static final class Trie {
+        private final int[] childStart;
+        private final char[] edgeChars;
+        private final int[] edgeTargets;
+
+        private Trie(int[] childStart, char[] edgeChars, int[] edgeTargets) {
+            this.childStart = childStart;
+            this.edgeChars = edgeChars;
+            this.edgeTargets = edgeTargets;
+        }
+
+        interface Children<N> {
+            TreeMap<Character, N> of(N node);
+        }
+
+        static <N> Trie flatten(N root, Children<N> children, List<N> order) {
+            return flattenForest(Collections.singletonList(root), children, order);
+        }
+
+        /**
+         * 按广度优先顺序为节点编号，多个根节点的树共用同一组数组
+         */
+        static <N> Trie flattenForest(List<N> roots, Children<N> children, List<N> order) {
+            ArrayDeque<N> queue = new ArrayDeque<>(roots);
+            int edges = 0;
+            while (!queue.isEmpty()) {
+                N node = queue.poll();
+                order.add(node);
+                edges += children.of(node).size();
+                queue.addAll(children.of(node).values());
+            }
+            Map<N, Integer> ids = new IdentityHashMap<>();
+            for (int i = 0; i < order.size(); i++) {
+                ids.put(order.get(i), i);
+            }
+            int[] childStart = new int[order.size() + 1];
+            char[] edgeChars = new char[edges];
+            int[] edgeTargets = new int[edges];
+            int pos = 0;
+            for (int i = 0; i < order.size(); i++) {
+                childStart[i] = pos;
+                for (Map.Entry<Character, N> e : children.of(order.get(i)).entrySet()) {
+                    edgeChars[pos] = e.getKey();
+                    edgeTargets[pos] = ids.get(e.getValue());
+                    pos++;
+                }
+            }
+            childStart[order.size()] = pos;
+            return new Trie(childStart, edgeChars, edgeTargets);
+        }
+
+        int child(int node, char c) {
+            int lo = childStart[node];
+            int hi = childStart[node + 1] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char m = edgeChars[mid];
+                if (m < c) {
+                    lo = mid + 1;
+                } else if (m > c) {
+                    hi = mid - 1;
+                } else {
+                    return edgeTargets[mid];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package com.deqiying.qtool;
 
+import com.deqiying.qtool.net.CachingHostResolver;
+import com.deqiying.qtool.net.HostResolver;
+import com.deqiying.qtool.string.Splitter;
 import com.deqiying.qtool.string.StringUtils;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,6 +26,12 @@ import java.util.regex.Pattern;
 public class UrlUtils {
     // URL正则表达式模式，用于解析URL组件
     private static final Pattern URL_PATTERN = Pattern.compile("^(([^:/?#]+):)?(//([^/?#]*))?([^?#]*)(\\?([^#]*))?(#(.*))?");
+    // 协商的内容编码
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    // 全局传输统计
+    private static final TransferStats TRANSFER_STATS = new TransferStats();
+    // 默认的首字节延迟统计，用于对冲请求
+    private static final LatencyTracker DEFAULT_LATENCY_TRACKER = new LatencyTracker();
 
     /**
      * 判断字符串是否是一个有效的URL
@@ -32,33 +50,128 @@ public class UrlUtils {
 
     /**
      * 尝试打开一个URL链接，如果响应类型是文件或流则返回InputStream，否则返回null
+     * <p>
+     * 会与服务端协商gzip/deflate压缩传输，返回的流为透明解压后的内容
      *
      * @param url 要打开的URL
      * @return InputStream 如果是文件或流；否则返回null
      * @throws Exception 如果URL无效或请求失败
      */
     public static InputStream openUrl(String url) throws Exception {
+        return openUrl(url, false);
+    }
+
+    /**
+     * 尝试打开一个URL链接，协商gzip/deflate压缩传输
+     *
+     * @param url         要打开的URL
+     * @param rawEncoding 为true时返回未解码的原始流（编码方式由响应头Content-Encoding决定），为false时返回解压后的流
+     * @return InputStream 响应内容流
+     * @throws Exception 如果URL无效或请求失败
+     */
+    public static InputStream openUrl(String url, boolean rawEncoding) throws Exception {
         // 打开连接
-        HttpURLConnection connection = openUrlConnection(url);
+        HttpURLConnection connection = openUrlConnection(url, true);
 
         int responseCode = connection.getResponseCode();
         if (responseCode == HttpURLConnection.HTTP_OK) {
-            return connection.getInputStream();
+            return getResponseStream(connection, rawEncoding);
         } else {
             throw new Exception("无法打开URL,响应码: " + responseCode);
         }
     }
 
+    /**
+     * 按请求选项打开一个URL链接
+     * <p>
+     * 重定向由本方法手动跟随，截止时间覆盖建连、首字节与完整响应体的读取，并跨越所有重定向；
+     * 启用对冲时，若首个请求在延迟分位数内未响应，会发出一个副本请求，先成功者胜出。
+     *
+     * @param url     要打开的URL
+     * @param options 请求选项
+     * @return InputStream 响应内容流，超过截止时间后读取会抛出SocketTimeoutException
+     * @throws Exception 如果URL无效、请求失败或超过截止时间
+     */
+    public static InputStream openUrl(String url, FetchOptions options) throws Exception {
+        return UrlFetcher.open(url, options == null ? new FetchOptions() : options);
+    }
+
+    /**
+     * 异步按请求选项打开一个URL链接
+     * <p>
+     * 在Java 21+上使用虚拟线程执行，可同时进行数万个请求；在更低版本上使用有界线程池，
+     * 超出线程数的请求在队列中等待。也可以通过{@link #setAsyncExecutor(Executor)}指定执行器。
+     *
+     * @param url     要打开的URL
+     * @param options 请求选项，为null时使用默认选项
+     * @return 响应内容流的Future
+     */
+    public static CompletableFuture<InputStream> openUrlAsync(String url, FetchOptions options) {
+        return UrlFetcher.openAsync(url, options == null ? new FetchOptions() : options);
+    }
+
+    /**
+     * 设置异步方法使用的执行器
+     *
+     * @param executor 执行器，为null时恢复默认（Java 21+为虚拟线程，否则为有界线程池）
+     */
+    public static void setAsyncExecutor(Executor executor) {
+        UrlFetcher.setAsyncExecutor(executor);
+    }
+
+    /**
+     * 默认异步执行器是否使用虚拟线程
+     *
+     * @return 运行在Java 21+时返回true
+     */
+    public static boolean isVirtualThreadAvailable() {
+        return UrlFetcher.usesVirtualThreads();
+    }
+
     /**
      * 尝试下载一个URL链接
      *
      * @param url 要打开的URL
-     * @return byte[] 下载好的字节流
+     * @return byte[] 下载好的字节流（已解压）
      * @throws Exception 如果URL无效或请求失败
      */
     public static byte[] downloadUrl(String url) throws Exception {
-        try (InputStream inputStream = openUrl(url);
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+        return downloadUrl(url, false);
+    }
+
+    /**
+     * 尝试下载一个URL链接
+     *
+     * @param url         要打开的URL
+     * @param rawEncoding 为true时返回未解码的原始字节，为false时返回解压后的字节
+     * @return byte[] 下载好的字节流
+     * @throws Exception 如果URL无效或请求失败
+     */
+    public static byte[] downloadUrl(String url, boolean rawEncoding) throws Exception {
+        try (InputStream inputStream = openUrl(url, rawEncoding)) {
+            return readFully(inputStream);
+        }
+    }
+
+    /**
+     * 按请求选项下载一个URL链接
+     *
+     * @param url     要打开的URL
+     * @param options 请求选项
+     * @return byte[] 下载好的字节流
+     * @throws Exception 如果URL无效、请求失败或超过截止时间
+     */
+    public static byte[] downloadUrl(String url, FetchOptions options) throws Exception {
+        try (InputStream inputStream = openUrl(url, options)) {
+            return readFully(inputStream);
+        }
+    }
+
+    /**
+     * 读取输入流的全部内容
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
             // 缓冲区
             byte[] buffer = new byte[8192];
             int bytesRead;
@@ -77,15 +190,108 @@ public class UrlUtils {
      * @throws Exception 如果URL无效或请求失败
      */
     public static HttpURLConnection openUrlConnection(String urlStr) throws Exception {
+        return openUrlConnection(urlStr, false);
+    }
+
+    /**
+     * 尝试打开一个URL链接，返回HttpURLConnection对象
+     *
+     * @param urlStr           要打开的URL
+     * @param acceptCompressed 是否发送Accept-Encoding协商gzip/deflate压缩传输，
+     *                         为true时应通过{@link #getResponseStream(HttpURLConnection, boolean)}读取响应
+     * @return HttpURLConnection 如果是文件或流；否则返回null
+     * @throws Exception 如果URL无效或请求失败
+     */
+    public static HttpURLConnection openUrlConnection(String urlStr, boolean acceptCompressed) throws Exception {
         URI uri = createEncodedUri(urlStr);
         URL url = uri.toURL();
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("GET");
         connection.setConnectTimeout(10 * 60 * 1000);
         connection.setReadTimeout(0);
+        if (acceptCompressed) {
+            connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        }
         return connection;
     }
 
+    /**
+     * 获取连接的响应流，并按响应头Content-Encoding进行解压，同时记录传输统计
+     *
+     * @param connection  已打开的连接
+     * @param rawEncoding 为true时返回未解码的原始流，为false时返回解压后的流
+     * @return InputStream 响应内容流
+     * @throws IOException 如果读取失败或内容编码不受支持
+     */
+    public static InputStream getResponseStream(HttpURLConnection connection, boolean rawEncoding) throws IOException {
+        InputStream wire = new CountingInputStream(connection.getInputStream(), TRANSFER_STATS.wireBytes);
+        String encoding = connection.getContentEncoding();
+        if (rawEncoding) {
+            return wire;
+        }
+        return new CountingInputStream(decodeContent(wire, encoding), TRANSFER_STATS.decodedBytes);
+    }
+
+    /**
+     * 获取全局传输统计（线上字节数与解码后字节数）
+     *
+     * @return 传输统计
+     */
+    public static TransferStats getTransferStats() {
+        return TRANSFER_STATS;
+    }
+
+    /**
+     * 按内容编码包装解压流
+     * <p>
+     * 多个编码（如"gzip, identity"）按应用顺序的逆序依次解码，identity被忽略；空响应体直接返回空内容。
+     */
+    private static InputStream decodeContent(InputStream in, String encoding) throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        String[] codings = Splitter.on(',').trimResults().omitEmptyStrings().splitToArray(encoding);
+        InputStream decoded = in;
+        for (int i = codings.length - 1; i >= 0; i--) {
+            String enc = codings[i];
+            if ("identity".equalsIgnoreCase(enc)) {
+                continue;
+            }
+            if (!"gzip".equalsIgnoreCase(enc) && !"x-gzip".equalsIgnoreCase(enc) && !"deflate".equalsIgnoreCase(enc)) {
+                throw new IOException("不支持的内容编码: " + encoding);
+            }
+            // 读两个字节判断是否为空响应体，deflate还需据此区分zlib格式与裸deflate数据
+            PushbackInputStream pushback = new PushbackInputStream(decoded, 2);
+            int b0 = pushback.read();
+            if (b0 == -1) {
+                return pushback;
+            }
+            int b1 = pushback.read();
+            if (b1 != -1) {
+                pushback.unread(b1);
+            }
+            pushback.unread(b0);
+            if ("deflate".equalsIgnoreCase(enc)) {
+                // 标准为zlib格式，但部分服务端会发送裸deflate数据
+                boolean zlib = b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+                decoded = new InflaterInputStream(pushback, new Inflater(!zlib), 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        // 自行传入的Inflater不会被InflaterInputStream释放，需手动end()归还本地内存
+                        try {
+                            super.close();
+                        } finally {
+                            inf.end();
+                        }
+                    }
+                };
+            } else {
+                decoded = new GZIPInputStream(pushback, 8192);
+            }
+        }
+        return decoded;
+    }
+
     /**
      * 创建一个编码后的URI对象
      *
@@ -93,7 +299,7 @@ public class UrlUtils {
      * @return URI 编码后的URI对象
      * @throws MalformedURLException 如果URL格式无效
      */
-    private static URI createEncodedUri(String urlStr) throws MalformedURLException {
+    static URI createEncodedUri(String urlStr) throws MalformedURLException {
         if (urlStr == null || urlStr.trim().isEmpty()) {
             throw new MalformedURLException("URL不能为空");
         }
@@ -256,82 +462,95 @@ public class UrlUtils {
      * @throws Exception 如果URL无效或请求失败
      */
     public static RedirectResult getFinalUrlWithDetails(String shortUrl) throws Exception {
+        return getFinalUrlWithDetails(shortUrl, null);
+    }
+
+    /**
+     * 获取短链接重定向之后的最终URL（带详细信息），截止时间跨越整个重定向链生效
+     *
+     * @param shortUrl 短链接URL
+     * @param options  请求选项，为null时使用默认选项
+     * @return RedirectResult 包含最终URL和重定向信息的结果对象，重定向次数超过上限时返回null
+     * @throws Exception 如果URL无效、请求失败或超过截止时间
+     */
+    public static RedirectResult getFinalUrlWithDetails(String shortUrl, FetchOptions options) throws Exception {
         if (shortUrl == null || shortUrl.trim().isEmpty()) {
             throw new IllegalArgumentException("URL不能为空");
         }
+        return UrlFetcher.resolveRedirects(shortUrl, options == null ? new FetchOptions() : options);
+    }
 
-        RedirectResult result = new RedirectResult();
-        result.originalUrl = shortUrl;
-        result.redirectChain = new java.util.ArrayList<>();
-
-        String currentUrl = shortUrl;
-        int maxRedirects = 10;
-        int redirectCount = 0;
-
-        while (redirectCount < maxRedirects) {
-            HttpURLConnection connection = null;
-            try {
-                URI uri = createEncodedUri(currentUrl);
-                URL url = uri.toURL();
-                connection = (HttpURLConnection) url.openConnection();
-
-                connection.setRequestMethod("HEAD");
-                connection.setConnectTimeout(10 * 1000);
-                connection.setReadTimeout(10 * 1000);
-                connection.setInstanceFollowRedirects(false);
-                connection.setRequestProperty("User-Agent",
-                        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36");
-
-                int responseCode = connection.getResponseCode();
-
-                if (responseCode == HttpURLConnection.HTTP_MOVED_PERM ||
-                        responseCode == HttpURLConnection.HTTP_MOVED_TEMP ||
-                        responseCode == HttpURLConnection.HTTP_SEE_OTHER ||
-                        responseCode == 307 ||
-                        responseCode == 308) {
-
-                    String location = connection.getHeaderField("Location");
-                    if (location == null || location.trim().isEmpty()) {
-                        result.finalUrl = currentUrl;
-                        result.redirectCount = redirectCount;
-                        return result;
-                    }
-
-                    // 记录重定向信息
-                    RedirectInfo redirectInfo = new RedirectInfo();
-                    redirectInfo.fromUrl = currentUrl;
-                    redirectInfo.toUrl = location;
-                    redirectInfo.statusCode = responseCode;
-                    result.redirectChain.add(redirectInfo);
-
-                    // 处理相对URL
-                    if (location.startsWith("/")) {
-                        URI currentUri = new URI(currentUrl);
-                        location = currentUri.getScheme() + "://" + currentUri.getAuthority() + location;
-                    } else if (!location.startsWith("http://") && !location.startsWith("https://")) {
-                        URI currentUri = new URI(currentUrl);
-                        URI locationUri = currentUri.resolve(location);
-                        location = locationUri.toString();
-                    }
-
-                    currentUrl = location;
-                    redirectCount++;
-                } else if (responseCode >= 200 && responseCode < 300) {
-                    result.finalUrl = currentUrl;
-                    result.redirectCount = redirectCount;
-                    return result;
-                } else {
-                    throw new Exception("获取最终URL失败，HTTP状态码: " + responseCode);
-                }
+    /**
+     * 异步获取短链接重定向之后的最终URL（带详细信息），适合大批量短链解析
+     *
+     * @param shortUrl 短链接URL
+     * @param options  请求选项，为null时使用默认选项
+     * @return RedirectResult的Future，重定向次数超过上限时结果为null
+     * @see #openUrlAsync(String, FetchOptions)
+     */
+    public static CompletableFuture<RedirectResult> getFinalUrlWithDetailsAsync(String shortUrl, FetchOptions options) {
+        if (shortUrl == null || shortUrl.trim().isEmpty()) {
+            CompletableFuture<RedirectResult> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("URL不能为空"));
+            return future;
+        }
+        return UrlFetcher.resolveRedirectsAsync(shortUrl, options == null ? new FetchOptions() : options);
+    }
 
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
-            }
+    /**
+     * 处理重定向的Location，将相对URL解析为绝对URL
+     */
+    static String resolveLocation(String currentUrl, String location) throws URISyntaxException {
+        if (location.startsWith("/")) {
+            URI currentUri = new URI(currentUrl);
+            return currentUri.getScheme() + "://" + currentUri.getAuthority() + location;
+        } else if (!location.startsWith("http://") && !location.startsWith("https://")) {
+            URI currentUri = new URI(currentUrl);
+            return currentUri.resolve(location).toString();
         }
+        return location;
+    }
 
-        return null;
+    /**
+     * 请求选项类
+     */
+    public static class FetchOptions {
+        /**
+         * 整体截止时间（毫秒），覆盖建连、首字节与完整响应体的读取，并跨越所有重定向；小于等于0表示不限制
+         */
+        public long deadlineMillis;
+        /**
+         * 触发对冲请求的延迟分位数，取值(0, 1]，例如0.95；小于等于0表示不对冲
+         */
+        public double hedgePercentile;
+        /**
+         * 对冲请求的最小触发延迟（毫秒），避免分位数过小时产生过多副本请求
+         */
+        public long minHedgeDelayMillis = 20;
+        /**
+         * 首字节延迟统计，用于计算对冲请求的触发时间，默认所有请求共享同一个统计
+         */
+        public LatencyTracker latencyTracker = DEFAULT_LATENCY_TRACKER;
+        /**
+         * 是否返回未解码的原始流
+         */
+        public boolean rawEncoding;
+        /**
+         * 最大重定向次数
+         */
+        public int maxRedirects = 10;
+        /**
+         * 按主机限流的调度器，为null时不限流；重定向的每一跳都会按目标主机获取许可
+         */
+        public HostThrottle hostThrottle;
+        /**
+         * 主机解析器，为null时由JDK解析且不校验地址；设置后每一跳（含重定向）都先经其解析，
+         * 配合{@link CachingHostResolver}可缓存DNS结果并拒绝内网地址。HTTP与HTTPS请求都直接连接到校验过的地址，
+         * 不再二次解析，某个地址无法建连时在截止时间内尝试下一个；HTTPS的SNI与证书主机名校验仍使用原主机名。
+         * 系统代理设置（{@link java.net.ProxySelector}，含http.proxyHost、http.nonProxyHosts等）为请求选择了代理时经代理连接，
+         * 解析结果仍会校验，但实际连接的地址由代理解析
+         */
+        public HostResolver resolver;
     }
 
     /**
@@ -371,7 +590,84 @@ public class UrlUtils {
                     '}';
         }
     }
-    
+
+    /**
+     * 传输统计类
+     */
+    public static class TransferStats {
+        private final AtomicLong wireBytes = new AtomicLong();
+        private final AtomicLong decodedBytes = new AtomicLong();
+
+        /**
+         * 线上传输的字节数（压缩后）
+         */
+        public long getWireBytes() {
+            return wireBytes.get();
+        }
+
+        /**
+         * 解码后交付给调用方的字节数（原始流模式下不计入）
+         */
+        public long getDecodedBytes() {
+            return decodedBytes.get();
+        }
+
+        /**
+         * 清零统计
+         */
+        public void reset() {
+            wireBytes.set(0);
+            decodedBytes.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return "TransferStats{" +
+                    "wireBytes=" + wireBytes.get() +
+                    ", decodedBytes=" + decodedBytes.get() +
+                    '}';
+        }
+    }
+
+    /**
+     * 统计读取字节数的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                counter.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
+
     /**
      * 获取URL的协议（scheme），例如 http、https
      *
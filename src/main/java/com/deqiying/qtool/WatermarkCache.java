@@ -0,0 +1,258 @@
+package com.deqiying.qtool;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 水印图片缓存
+ * <p>
+ * 以水印来源（URL）为键缓存解码后的水印，并按请求的宽度缓存预先缩放的版本；{@link TextWatermark}以全部参数为键缓存渲染结果。
+ * 缓存的图片已转换为目标像素格式（默认预乘ARGB），绘制时无需再做格式转换与缩放，每张图片只剩合成的开销。
+ * 缓存按像素占用的字节数限制内存，超出时按最近最少使用（LRU）淘汰。
+ * <p>
+ * 缓存不会主动感知来源内容的变化，水印更新后需调用{@link #invalidate(String)}。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class WatermarkCache {
+    /**
+     * 默认内存上限：64MB
+     */
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final WatermarkCache DEFAULT = new WatermarkCache(DEFAULT_MAX_BYTES);
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    /**
+     * @param maxBytes 缓存图片占用的最大字节数
+     */
+    public WatermarkCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes必须大于0");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取默认的共享缓存
+     *
+     * @return 共享缓存
+     */
+    public static WatermarkCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取原始尺寸、预乘ARGB格式的水印
+     *
+     * @param source 水印URL
+     * @return 水印图片，调用方不得修改
+     * @throws Exception 下载或解码失败
+     */
+    public BufferedImage get(String source) throws Exception {
+        return get(source, 0, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * 获取指定宽度、预乘ARGB格式的水印
+     *
+     * @param source 水印URL
+     * @param width  目标宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @return 水印图片，调用方不得修改
+     * @throws Exception 下载或解码失败
+     */
+    public BufferedImage get(String source, int width) throws Exception {
+        return get(source, width, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * 获取指定宽度与像素格式的水印
+     *
+     * @param source    水印URL
+     * @param width     目标宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @param imageType 像素格式，例如{@link BufferedImage#TYPE_INT_ARGB_PRE}
+     * @return 水印图片，调用方不得修改
+     * @throws Exception 下载或解码失败
+     */
+    public BufferedImage get(String source, int width, int imageType) throws Exception {
+        return get(source, width, imageType, null);
+    }
+
+    /**
+     * 获取指定宽度与像素格式的水印，未命中缓存时按请求选项下载
+     *
+     * @param source    水印URL
+     * @param width     目标宽度，高度按比例计算；小于等于0表示原始尺寸
+     * @param imageType 像素格式，例如{@link BufferedImage#TYPE_INT_ARGB_PRE}
+     * @param options   下载的请求选项（截止时间、限流等），为null时使用默认选项
+     * @return 水印图片，调用方不得修改
+     * @throws Exception 下载或解码失败
+     */
+    public BufferedImage get(String source, int width, int imageType, UrlUtils.FetchOptions options)
+            throws Exception {
+        Objects.requireNonNull(source, "source");
+        Key key = new Key(source, Math.max(0, width), imageType);
+        BufferedImage cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        // 缩放版本由原始尺寸版本派生，避免重复下载
+        BufferedImage original;
+        if (key.width == 0 && imageType == BufferedImage.TYPE_INT_ARGB_PRE) {
+            original = load(source, options);
+        } else {
+            original = get(source, 0, BufferedImage.TYPE_INT_ARGB_PRE, options);
+        }
+        BufferedImage variant = key.width == 0
+                ? convert(original, imageType)
+                : ImageWatermarkUtil.scaleImage(original, key.width,
+                Math.max(1, Math.round((float) original.getHeight() * key.width / original.getWidth())), imageType);
+        // 尺寸与格式已符合时返回的就是原图，不再以另一个键重复缓存（也避免重复计入占用）
+        if (variant != original) {
+            put(key, variant);
+        }
+        return variant;
+    }
+
+    /**
+     * 获取渲染后的文字水印，相同参数的文字只渲染一次
+     *
+     * @param text 文字水印
+     * @return 预乘ARGB的水印图片，调用方不得修改
+     */
+    public BufferedImage get(TextWatermark text) {
+        Objects.requireNonNull(text, "text");
+        Key key = new Key(text, 0, BufferedImage.TYPE_INT_ARGB_PRE);
+        BufferedImage cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        BufferedImage rendered = text.render();
+        put(key, rendered);
+        return rendered;
+    }
+
+    /**
+     * 移除某个来源的所有缓存版本
+     *
+     * @param source 水印URL
+     */
+    public synchronized void invalidate(String source) {
+        Iterator<Map.Entry<Key, BufferedImage>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, BufferedImage> e = it.next();
+            if (e.getKey().source.equals(source)) {
+                usedBytes -= sizeOf(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * 当前缓存图片占用的字节数
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized BufferedImage lookup(Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(Key key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            // 单张超过上限时不缓存
+            return;
+        }
+        BufferedImage previous = entries.put(key, image);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += size;
+        Iterator<BufferedImage> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            usedBytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    private static BufferedImage load(String source, UrlUtils.FetchOptions options) throws Exception {
+        BufferedImage image;
+        try (InputStream in = options == null ? UrlUtils.openUrl(source) : UrlUtils.openUrl(source, options)) {
+            image = ImageWatermarkUtil.loadImage(in);
+        }
+        if (image == null) {
+            throw new IOException("无法解码水印图片: " + source);
+        }
+        return convert(image, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    private static BufferedImage convert(BufferedImage image, int imageType) {
+        if (image.getType() == imageType) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+        Graphics2D g2d = converted.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g2d.drawImage(image, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return converted;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight()
+                * Math.max(1, image.getColorModel().getPixelSize() / 8);
+    }
+
+    /**
+     * 缓存键：来源 + 宽度 + 像素格式
+     */
+    private static final class Key {
+        // 水印URL或文字水印
+        final Object source;
+        final int width;
+        final int imageType;
+
+        Key(Object source, int width, int imageType) {
+            this.source = source;
+            this.width = width;
+            this.imageType = imageType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return width == key.width && imageType == key.imageType && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return (source.hashCode() * 31 + width) * 31 + imageType;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.deqiying.qtool;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 批量水印流水线
+ * <p>
+ * 将解码、绘制水印、编码拆分为三个阶段，分别运行在各自的有界线程池上，不同图片的各阶段可以重叠执行，
+ * 使下载/解码的IO与绘制/编码的CPU工作同时进行。处于流水线中的图片数量受maxInFlight限制，
+ * 超过时提交方阻塞等待，避免解码后的图片堆积占满内存。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * try (WatermarkPipeline pipeline = new WatermarkPipeline(logo, Position.BOTTOM_RIGHT, 10)) {
+ *     pipeline.process(images, (index, result, error) -> ...);
+ * }
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class WatermarkPipeline implements AutoCloseable {
+
+    private final BufferedImage watermarkImage;
+    private final ImageWatermarkUtil.Position position;
+    private final int margin;
+    private final ExecutorService decodeExecutor;
+    private final ExecutorService compositeExecutor;
+    private final ExecutorService encodeExecutor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 使用默认线程数（各阶段均为CPU核数）创建流水线
+     *
+     * @param watermarkImage 水印图片，各任务共享只读
+     * @param position       水印位置（角落）
+     * @param margin         边缘距离
+     */
+    public WatermarkPipeline(BufferedImage watermarkImage, ImageWatermarkUtil.Position position, int margin) {
+        this(watermarkImage, position, margin, Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param watermarkImage   水印图片，各任务共享只读
+     * @param position         水印位置（角落）
+     * @param margin           边缘距离
+     * @param decodeThreads    解码（含下载）阶段线程数
+     * @param compositeThreads 绘制水印阶段线程数
+     * @param encodeThreads    编码阶段线程数
+     * @param maxInFlight      流水线中同时处理的最大图片数
+     */
+    public WatermarkPipeline(BufferedImage watermarkImage, ImageWatermarkUtil.Position position, int margin,
+                             int decodeThreads, int compositeThreads, int encodeThreads, int maxInFlight) {
+        if (watermarkImage == null || position == null) {
+            throw new IllegalArgumentException("水印图片与位置不能为空");
+        }
+        if (decodeThreads <= 0 || compositeThreads <= 0 || encodeThreads <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("线程数与maxInFlight必须大于0");
+        }
+        this.watermarkImage = watermarkImage;
+        this.position = position;
+        this.margin = margin;
+        this.decodeExecutor = newStageExecutor("qtool-watermark-decode", decodeThreads);
+        this.compositeExecutor = newStageExecutor("qtool-watermark-composite", compositeThreads);
+        this.encodeExecutor = newStageExecutor("qtool-watermark-encode", encodeThreads);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * 提交一张图片，流水线已满时阻塞等待
+     *
+     * @param image 图片字节数组
+     * @return 带水印图片的Future
+     * @throws InterruptedException 等待时被中断
+     * @throws IllegalStateException 流水线已关闭
+     */
+    public CompletableFuture<byte[]> submit(byte[] image) throws InterruptedException {
+        return submit(() -> ImageWatermarkUtil.loadImage(image));
+    }
+
+    /**
+     * 提交一张图片的URL，下载与解码在解码阶段执行，流水线已满时阻塞等待
+     *
+     * @param imageUrl 图片URL
+     * @return 带水印图片的Future
+     * @throws InterruptedException 等待时被中断
+     * @throws IllegalStateException 流水线已关闭
+     */
+    public CompletableFuture<byte[]> submit(String imageUrl) throws InterruptedException {
+        return submit(() -> {
+            try (InputStream in = UrlUtils.openUrl(imageUrl)) {
+                return ImageWatermarkUtil.loadImage(in);
+            }
+        });
+    }
+
+    /**
+     * 批量处理图片，结果按完成顺序回调，全部完成后返回
+     *
+     * @param images   图片字节数组列表
+     * @param listener 结果回调，可能在流水线线程中并发调用
+     * @throws InterruptedException 等待时被中断
+     * @throws IllegalStateException 流水线已关闭
+     */
+    public void process(List<byte[]> images, ResultListener listener) throws InterruptedException {
+        ensureOpen();
+        List<CompletableFuture<?>> futures = new ArrayList<>(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            int index = i;
+            futures.add(submit(images.get(i)).handle((result, error) -> {
+                listener.onResult(index, result, unwrap(error));
+                return null;
+            }));
+        }
+        for (CompletableFuture<?> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException ignored) {
+                // 回调自身抛出的异常不影响其它图片
+            }
+        }
+    }
+
+    private CompletableFuture<byte[]> submit(Decoder decoder) throws InterruptedException {
+        ensureOpen();
+        inFlight.acquire();
+        // 等待许可期间可能已被关闭
+        if (closed.get()) {
+            inFlight.release();
+            throw new IllegalStateException("流水线已关闭");
+        }
+        CompletableFuture<byte[]> future;
+        try {
+            future = CompletableFuture
+                    .supplyAsync(() -> decode(decoder), decodeExecutor)
+                    .thenApplyAsync(this::composite, compositeExecutor)
+                    .thenApplyAsync(WatermarkPipeline::encode, encodeExecutor);
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        future.whenComplete((result, error) -> inFlight.release());
+        return future;
+    }
+
+    private void ensureOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("流水线已关闭");
+        }
+    }
+
+    private static BufferedImage decode(Decoder decoder) {
+        try {
+            BufferedImage image = decoder.decode();
+            if (image == null) {
+                throw new IOException("无法解码图片");
+            }
+            return image;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private BufferedImage composite(BufferedImage mainImage) {
+        Point point = ImageWatermarkUtil.calculatePosition(mainImage, watermarkImage, position, margin);
+        ImageWatermarkUtil.addWatermarkToImage(mainImage, watermarkImage, point.x, point.y);
+        return mainImage;
+    }
+
+    private static byte[] encode(BufferedImage image) {
+        try {
+            return ImageWatermarkUtil.convertImageToByteArray(image);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static ExecutorService newStageExecutor(String name, int threads) {
+        // 提交数受inFlight限制，队列不会无限增长
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), UrlFetcher.daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 等待已提交的图片处理完成后关闭流水线，重复调用无效果；关闭后再提交抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        // 后续阶段在前一阶段完成时才提交到线程池，必须等全部图片离开流水线后才能关闭线程池
+        inFlight.acquireUninterruptibly(maxInFlight);
+        decodeExecutor.shutdown();
+        compositeExecutor.shutdown();
+        encodeExecutor.shutdown();
+        // 归还许可，让正在等待许可的提交者醒来后发现已关闭
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * 单张图片处理结果回调
+     */
+    public interface ResultListener {
+        /**
+         * @param index  图片在输入列表中的下标
+         * @param result 带水印的图片字节数组，失败时为null
+         * @param error  失败原因，成功时为null
+         */
+        void onResult(int index, byte[] result, Throwable error);
+    }
+
+    private interface Decoder {
+        BufferedImage decode() throws Exception;
+    }
+}
@@ -0,0 +1,16 @@
+package com.deqiying.qtool.net;
+
+import java.io.IOException;
+
+/**
+ * 主机解析到了不允许访问的地址（如内网、环回地址），用于阻止SSRF
+ *
+ * @author deqiying
+ */
+public class BlockedAddressException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public BlockedAddressException(String message) {
+        super(message);
+    }
+}
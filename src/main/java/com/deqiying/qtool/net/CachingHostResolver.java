@@ -0,0 +1,227 @@
+package com.deqiying.qtool.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带缓存与地址校验的主机名解析器
+ * <p>
+ * <ul>
+ * <li>缓存：解析结果按固定TTL缓存，失败结果按较短的TTL缓存，避免每次请求都查询DNS</li>
+ * <li>合并：同一主机名的并发解析只向下游发起一次，其余调用等待同一个结果</li>
+ * <li>校验：解析出的每个地址都按{@link IpCategory}分类，只要有一个属于禁止的分类（默认为
+ * {@link IpCategory#NOT_GLOBAL}，即内网、环回、链路本地等），整个主机名即被拒绝，
+ * 抛出{@link BlockedAddressException}；IPv4映射、NAT64、6to4、Teredo地址同时按其内嵌的IPv4判断</li>
+ * </ul>
+ * 返回的地址不带主机名，调用方连接这些地址时不会再次触发DNS查询，
+ * 从而保证实际连接的正是校验过的地址（防止DNS重绑定）。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * UrlUtils.FetchOptions options = new UrlUtils.FetchOptions();
+ * options.resolver = CachingHostResolver.getDefault();
+ * byte[] body = UrlUtils.downloadUrl(userSuppliedUrl, options);
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class CachingHostResolver implements HostResolver {
+    private static final long DEFAULT_TTL_MILLIS = 60_000;
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5_000;
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final CachingHostResolver DEFAULT = new CachingHostResolver(HostResolver.SYSTEM,
+            DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, IpCategory.NOT_GLOBAL);
+
+    private final HostResolver delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int blockedCategories;
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate          下游解析器，如{@link HostResolver#SYSTEM}或测试用的桩实现
+     * @param ttlMillis         解析成功的缓存时间（毫秒）
+     * @param negativeTtlMillis 解析失败或被拒绝的缓存时间（毫秒）
+     * @param blockedCategories 禁止访问的{@link IpCategory}分类，0表示不校验
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis, int blockedCategories) {
+        this(delegate, ttlMillis, negativeTtlMillis, blockedCategories, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param delegate          下游解析器
+     * @param ttlMillis         解析成功的缓存时间（毫秒）
+     * @param negativeTtlMillis 解析失败或被拒绝的缓存时间（毫秒）
+     * @param blockedCategories 禁止访问的{@link IpCategory}分类，0表示不校验
+     * @param maxEntries        最多缓存的主机名数量，超出时先清理过期条目，仍超出则清空
+     */
+    public CachingHostResolver(HostResolver delegate, long ttlMillis, long negativeTtlMillis, int blockedCategories,
+                               int maxEntries) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate不能为空");
+        }
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.blockedCategories = blockedCategories;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 默认解析器：JDK解析，成功缓存60秒、失败缓存5秒，禁止全部非全局地址
+     */
+    public static CachingHostResolver getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws IOException {
+        if (host == null || host.isEmpty()) {
+            throw new UnknownHostException("主机名为空");
+        }
+        String key = host.toLowerCase(Locale.ROOT);
+        Entry entry = cache.get(key);
+        if (entry == null || entry.isExpired(System.nanoTime())) {
+            entry = lookup(key);
+        }
+        return entry.get();
+    }
+
+    /**
+     * 移除主机名的缓存
+     *
+     * @param host 主机名
+     */
+    public void invalidate(String host) {
+        cache.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 当前缓存的主机名数量
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * 发起解析，同一主机名已有解析在进行时等待其结果
+     */
+    private Entry lookup(String host) throws IOException {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> inflight = pending.putIfAbsent(host, mine);
+        if (inflight != null) {
+            try {
+                return inflight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("解析主机名时被中断: " + host, e);
+            } catch (ExecutionException e) {
+                throw new IOException("解析主机名失败: " + host, e.getCause());
+            }
+        }
+        try {
+            Entry entry = query(host);
+            if (cache.size() >= maxEntries) {
+                evict();
+            }
+            cache.put(host, entry);
+            mine.complete(entry);
+            return entry;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(host, mine);
+        }
+    }
+
+    private Entry query(String host) {
+        long now = System.nanoTime();
+        InetAddress[] addresses;
+        try {
+            addresses = delegate.resolve(host);
+        } catch (IOException e) {
+            return new Entry(null, e, now + negativeTtlNanos);
+        }
+        if (addresses == null || addresses.length == 0) {
+            return new Entry(null, new UnknownHostException(host), now + negativeTtlNanos);
+        }
+        InetAddress[] pinned = new InetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            byte[] bytes = addresses[i].getAddress();
+            if (blockedCategories != 0) {
+                int categories = bytes.length == 4 ? IpCategory.classifyIpv4(IpUtils.toInt(bytes, 0))
+                        : IpCategory.classifyWithEmbedded(IpUtils.toLong(bytes, 0), IpUtils.toLong(bytes, 8));
+                if ((categories & blockedCategories) != 0) {
+                    String message = "禁止访问的地址: " + host + " -> " + addresses[i].getHostAddress()
+                            + " " + IpCategory.names(categories);
+                    return new Entry(null, new BlockedAddressException(message), now + negativeTtlNanos);
+                }
+            }
+            try {
+                // 去掉主机名，连接时不会按主机名再次解析
+                pinned[i] = InetAddress.getByAddress(bytes);
+            } catch (UnknownHostException e) {
+                return new Entry(null, e, now + negativeTtlNanos);
+            }
+        }
+        return new Entry(pinned, null, now + ttlNanos);
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        cache.values().removeIf(entry -> entry.isExpired(now));
+        if (cache.size() >= maxEntries) {
+            cache.clear();
+        }
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final IOException failure;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, IOException failure, long expiresAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        /**
+         * 每次抛出新的异常，缓存的异常只作为原因，避免共享同一个异常对象的堆栈
+         */
+        InetAddress[] get() throws IOException {
+            if (failure == null) {
+                return addresses.clone();
+            }
+            if (failure instanceof BlockedAddressException) {
+                throw new BlockedAddressException(failure.getMessage());
+            }
+            if (failure instanceof UnknownHostException) {
+                throw (UnknownHostException) new UnknownHostException(failure.getMessage()).initCause(failure);
+            }
+            throw new IOException(failure.getMessage(), failure);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.deqiying.qtool.net;
+
+import java.util.Collection;
+
+/**
+ * 从{@code X-Forwarded-For}或RFC 7239 {@code Forwarded}请求头中提取客户端IP
+ * <p>
+ * 代理链从右向左（离本机最近的一跳开始）逐跳检查：直连地址与各跳为可信代理时继续向左，
+ * 第一个不可信的地址即为客户端IP；全部可信时取最左一跳。遇到无法解析的一跳（如{@code unknown}、
+ * 混淆标识或伪造的内容）时停止，取其右侧最近的一跳。
+ * <p>
+ * 直接在请求头文本上原地解析，不拆分字符串、不做DNS查询；{@link #findInXForwardedFor(CharSequence)}与
+ * {@link #findInForwarded(CharSequence)}只返回客户端IP在请求头中的位置，完全不分配对象。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * ForwardedIpExtractor extractor = ForwardedIpExtractor.of(Arrays.asList("10.0.0.0/8", "2001:db8::/32"));
+ * String client = extractor.clientIp(request.getRemoteAddr(), request.getHeader("X-Forwarded-For"));
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class ForwardedIpExtractor {
+    /**
+     * 未找到客户端IP
+     */
+    public static final long NOT_FOUND = -1L;
+
+    private final IpRangeSet<?> trustedProxies;
+    private final int trustedCategories;
+
+    /**
+     * @param trustedProxies 可信代理的地址段，可为null
+     */
+    public ForwardedIpExtractor(IpRangeSet<?> trustedProxies) {
+        this(trustedProxies, 0);
+    }
+
+    /**
+     * @param trustedProxies    可信代理的地址段，可为null
+     * @param trustedCategories 视为可信代理的{@link IpCategory}分类，如{@code IpCategory.PRIVATE | IpCategory.LOOPBACK}
+     */
+    public ForwardedIpExtractor(IpRangeSet<?> trustedProxies, int trustedCategories) {
+        this.trustedProxies = trustedProxies;
+        this.trustedCategories = trustedCategories;
+    }
+
+    /**
+     * 以可信代理地址段创建
+     *
+     * @param trustedProxies 可信代理的地址段，如{@code 10.0.0.0/8}
+     * @return 提取器
+     * @throws IllegalArgumentException 地址段格式错误
+     */
+    public static ForwardedIpExtractor of(Collection<String> trustedProxies) {
+        return new ForwardedIpExtractor(IpRangeSet.of(trustedProxies));
+    }
+
+    /**
+     * 从{@code X-Forwarded-For}中获取客户端IP
+     *
+     * @param remoteAddr    直连地址
+     * @param xForwardedFor 请求头的值，可为null
+     * @return 客户端IP；直连地址不可信或请求头中没有可用的地址时返回直连地址
+     */
+    public String clientIp(CharSequence remoteAddr, CharSequence xForwardedFor) {
+        return clientIp(remoteAddr, xForwardedFor, false);
+    }
+
+    /**
+     * 从{@code Forwarded}中获取客户端IP
+     *
+     * @param remoteAddr 直连地址
+     * @param forwarded  请求头的值，可为null
+     * @return 客户端IP（IPv6不带方括号与端口）；直连地址不可信或请求头中没有可用的地址时返回直连地址
+     */
+    public String clientIpFromForwarded(CharSequence remoteAddr, CharSequence forwarded) {
+        return clientIp(remoteAddr, forwarded, true);
+    }
+
+    private String clientIp(CharSequence remoteAddr, CharSequence header, boolean rfc7239) {
+        if (remoteAddr == null) {
+            return null;
+        }
+        if (header == null || !isTrusted(remoteAddr, 0, remoteAddr.length())) {
+            return remoteAddr.toString();
+        }
+        long region = rfc7239 ? findInForwarded(header) : findInXForwardedFor(header);
+        if (region == NOT_FOUND) {
+            return remoteAddr.toString();
+        }
+        return header.subSequence(regionStart(region), regionEnd(region)).toString();
+    }
+
+    /**
+     * 在{@code X-Forwarded-For}中查找客户端IP，不分配对象
+     *
+     * @param header 请求头的值
+     * @return 客户端IP在请求头中的位置（用{@link #regionStart(long)}与{@link #regionEnd(long)}取出），
+     * 最右一跳无法解析时返回{@link #NOT_FOUND}
+     */
+    public long findInXForwardedFor(CharSequence header) {
+        long found = NOT_FOUND;
+        int end = header.length();
+        while (true) {
+            int comma = end - 1;
+            while (comma >= 0 && header.charAt(comma) != ',') {
+                comma--;
+            }
+            int from = comma + 1;
+            int to = end;
+            while (from < to && isWhitespace(header.charAt(from))) {
+                from++;
+            }
+            while (to > from && isWhitespace(header.charAt(to - 1))) {
+                to--;
+            }
+            long[] address = IpParser.scratch();
+            if (IpParser.parse(header, from, to, address) == IpParser.FAMILY_NONE) {
+                return found;
+            }
+            found = region(from, to);
+            if (comma < 0 || !isTrusted(address[0], address[1])) {
+                return found;
+            }
+            end = comma;
+        }
+    }
+
+    /**
+     * 在{@code Forwarded}中查找客户端IP（各元素的{@code for}参数），不分配对象
+     *
+     * @param header 请求头的值
+     * @return 客户端IP在请求头中的位置（不含引号、方括号与端口），最右一个元素没有可用的地址时返回{@link #NOT_FOUND}
+     */
+    public long findInForwarded(CharSequence header) {
+        long found = NOT_FOUND;
+        int end = header.length();
+        while (true) {
+            int start = elementStart(header, end);
+            long node = forNode(header, start, end);
+            if (node == NOT_FOUND) {
+                return found;
+            }
+            long[] address = IpParser.scratch();
+            if (IpParser.parse(header, regionStart(node), regionEnd(node), address) == IpParser.FAMILY_NONE) {
+                return found;
+            }
+            found = node;
+            if (start == 0 || !isTrusted(address[0], address[1])) {
+                return found;
+            }
+            end = start - 1;
+        }
+    }
+
+    /**
+     * 是否为可信代理
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 是否可信，不是合法IP时返回false
+     */
+    public boolean isTrusted(CharSequence ip, int from, int to) {
+        long[] address = IpParser.scratch();
+        return IpParser.parse(ip, from, to, address) != IpParser.FAMILY_NONE && isTrusted(address[0], address[1]);
+    }
+
+    /**
+     * 是否为可信代理
+     *
+     * @param high 高64位
+     * @param low  低64位
+     */
+    public boolean isTrusted(long high, long low) {
+        if (trustedCategories != 0 && (IpCategory.classify(high, low) & trustedCategories) != 0) {
+            return true;
+        }
+        return trustedProxies != null && trustedProxies.contains(high, low);
+    }
+
+    /**
+     * 区域的起始下标（包含）
+     */
+    public static int regionStart(long region) {
+        return (int) (region >>> 32);
+    }
+
+    /**
+     * 区域的结束下标（不包含）
+     */
+    public static int regionEnd(long region) {
+        return (int) region;
+    }
+
+    private static long region(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    /**
+     * 向左查找元素的起始位置，跳过引号内的逗号
+     */
+    private static int elementStart(CharSequence s, int end) {
+        boolean quoted = false;
+        for (int i = end - 1; i >= 0; i--) {
+            char c = s.charAt(i);
+            if (c == '"' && !isEscaped(s, i)) {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isEscaped(CharSequence s, int i) {
+        int backslashes = 0;
+        while (i > 0 && s.charAt(i - 1) == '\\') {
+            backslashes++;
+            i--;
+        }
+        return (backslashes & 1) == 1;
+    }
+
+    /**
+     * 在元素{@code [from, to)}中查找for参数，返回其中地址的位置
+     */
+    private static long forNode(CharSequence s, int from, int to) {
+        int i = from;
+        while (i < to) {
+            while (i < to && (isWhitespace(s.charAt(i)) || s.charAt(i) == ';')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < to && s.charAt(i) != '=' && s.charAt(i) != ';') {
+                i++;
+            }
+            int nameEnd = i;
+            while (nameEnd > nameStart && isWhitespace(s.charAt(nameEnd - 1))) {
+                nameEnd--;
+            }
+            if (i >= to || s.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < to && isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            int valueStart;
+            int valueEnd;
+            if (i < to && s.charAt(i) == '"') {
+                valueStart = ++i;
+                while (i < to && (s.charAt(i) != '"' || isEscaped(s, i))) {
+                    i++;
+                }
+                valueEnd = i;
+                while (i < to && s.charAt(i) != ';') {
+                    i++;
+                }
+            } else {
+                valueStart = i;
+                while (i < to && s.charAt(i) != ';') {
+                    i++;
+                }
+                valueEnd = i;
+                while (valueEnd > valueStart && isWhitespace(s.charAt(valueEnd - 1))) {
+                    valueEnd--;
+                }
+            }
+            if (nameEnd - nameStart == 3 && isFor(s, nameStart)) {
+                return node(s, valueStart, valueEnd);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static boolean isFor(CharSequence s, int i) {
+        return (s.charAt(i) | 0x20) == 'f' && (s.charAt(i + 1) | 0x20) == 'o' && (s.charAt(i + 2) | 0x20) == 'r';
+    }
+
+    /**
+     * 去掉节点标识中的方括号与端口：{@code [2001:db8::1]:4711}、{@code 192.0.2.1:8080}
+     */
+    private static long node(CharSequence s, int from, int to) {
+        if (from < to && s.charAt(from) == '[') {
+            for (int i = from + 1; i < to; i++) {
+                if (s.charAt(i) == ']') {
+                    return region(from + 1, i);
+                }
+            }
+            return NOT_FOUND;
+        }
+        int colon = -1;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == ':') {
+                if (colon >= 0) {
+                    // 多个冒号：不带方括号的IPv6，原样返回
+                    return region(from, to);
+                }
+                colon = i;
+            }
+        }
+        return region(from, colon < 0 ? to : colon);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,426 @@
+package com.deqiying.qtool.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * 按IP统计请求量的滑动窗口热点检测器
+ * <p>
+ * 用于发现滥用IP：无论攻击涉及多少个不同的IP，内存都是固定的。每个时间桶包含：
+ * <ul>
+ * <li>Count-Min计数矩阵（depth行 × width列），给出每个IP计数的估计值（只会偏大，不会偏小），更新为无锁的原子加</li>
+ * <li>Space-Saving候选集，按IP哈希分为若干条带、各自加锁，保留计数最大的capacity个IP作为热点候选。
+ * 候选的计数取本桶的Count-Min估计值，候选满时新IP的估计值超过最小者才将其顶替，
+ * 大量只出现几次的IP在锁外与最小值比较后即被丢弃，不会冲掉真正的热点</li>
+ * </ul>
+ * 窗口由buckets个时间桶组成，轮转时清空最旧的桶，估计值为窗口内各桶之和，
+ * 覆盖最近{@code (buckets - 1) * 桶时长}到{@code buckets * 桶时长}的请求。
+ * {@link #topN(int)}合并窗口内各桶的候选，以Count-Min估计值排序。
+ * <p>
+ * 估计误差：以概率{@code 1 - e^-depth}，单个IP的高估量不超过窗口总请求数的{@code e / width}。
+ * 桶轮转与并发更新之间不加锁，轮转瞬间的少量请求可能计入相邻的桶。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * HeavyHitterSketch sketch = new HeavyHitterSketch(256, 60_000);
+ * sketch.record(clientIp);
+ * if (sketch.estimate(clientIp) > 1000) { ... }
+ * List<HeavyHitterSketch.HeavyHitter> top = sketch.topN(20);
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class HeavyHitterSketch {
+    private static final int DEFAULT_WIDTH = 1 << 14;
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int DEFAULT_BUCKETS = 6;
+
+    private final int width;
+    private final int depth;
+    private final long bucketMillis;
+    private final int stripeMask;
+    private final Bucket[] buckets;
+    private final LongSupplier clock;
+
+    /**
+     * 使用默认的计数矩阵（4 × 16384）与6个时间桶
+     *
+     * @param capacity     每个时间桶保留的热点候选数量，应为需要报告的热点数量的数倍
+     * @param windowMillis 窗口时长（毫秒）
+     */
+    public HeavyHitterSketch(int capacity, long windowMillis) {
+        this(capacity, DEFAULT_WIDTH, DEFAULT_DEPTH, windowMillis, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param capacity     每个时间桶保留的热点候选数量
+     * @param width        计数矩阵列数，向上取整为2的幂
+     * @param depth        计数矩阵行数
+     * @param windowMillis 窗口时长（毫秒）
+     * @param buckets      窗口划分的时间桶数量
+     */
+    public HeavyHitterSketch(int capacity, int width, int depth, long windowMillis, int buckets) {
+        this(capacity, width, depth, windowMillis, buckets, System::currentTimeMillis);
+    }
+
+    /**
+     * 指定时钟，供测试驱动时间窗口
+     *
+     * @param clock 返回当前时间（毫秒）
+     */
+    HeavyHitterSketch(int capacity, int width, int depth, long windowMillis, int buckets, LongSupplier clock) {
+        if (capacity <= 0 || width <= 0 || depth <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("capacity、width、depth与buckets必须大于0");
+        }
+        if (windowMillis < buckets) {
+            throw new IllegalArgumentException("windowMillis不能小于buckets");
+        }
+        this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.depth = depth;
+        this.bucketMillis = windowMillis / buckets;
+        this.clock = clock;
+        int stripes = Math.min(Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2)),
+                Integer.highestOneBit(capacity));
+        this.stripeMask = stripes - 1;
+        this.buckets = new Bucket[buckets];
+        int stripeCapacity = (capacity + stripes - 1) / stripes;
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new Bucket(this.width * depth, stripes, stripeCapacity);
+        }
+    }
+
+    /**
+     * 记录一次请求
+     *
+     * @param ip IP地址
+     * @return 是否为合法IP
+     */
+    public boolean record(CharSequence ip) {
+        long[] scratch = IpParser.scratch();
+        if (ip == null || IpParser.parse(ip, 0, ip.length(), scratch) == IpParser.FAMILY_NONE) {
+            return false;
+        }
+        add(scratch[0], scratch[1], 1);
+        return true;
+    }
+
+    public void recordIpv4(int address) {
+        add(0, IpParser.IPV4_MAPPED_PREFIX | (address & 0xffffffffL), 1);
+    }
+
+    /**
+     * 记录请求
+     *
+     * @param high  高64位，IPv4以IPv4映射地址表示
+     * @param low   低64位
+     * @param count 请求数
+     */
+    public void add(long high, long low, long count) {
+        long tick = tick();
+        Bucket bucket = bucket(tick);
+        long hash = hash(high, low);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * width + ((h1 + row * h2) & (width - 1));
+            estimate = Math.min(estimate, bucket.cells.addAndGet(cell, count));
+        }
+        bucket.stripes[(int) (hash >>> 48) & stripeMask].offer(high, low, estimate);
+    }
+
+    /**
+     * 窗口内的估计请求数
+     *
+     * @param ip IP地址
+     * @return 估计值，不是合法IP时返回0
+     */
+    public long estimate(CharSequence ip) {
+        long[] scratch = IpParser.scratch();
+        if (ip == null || IpParser.parse(ip, 0, ip.length(), scratch) == IpParser.FAMILY_NONE) {
+            return 0;
+        }
+        return estimate(scratch[0], scratch[1]);
+    }
+
+    public long estimateIpv4(int address) {
+        return estimate(0, IpParser.IPV4_MAPPED_PREFIX | (address & 0xffffffffL));
+    }
+
+    /**
+     * 窗口内的估计请求数
+     *
+     * @param high 高64位，IPv4以IPv4映射地址表示
+     * @param low  低64位
+     * @return 估计值
+     */
+    public long estimate(long high, long low) {
+        long tick = tick();
+        long hash = hash(high, low);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * width + ((h1 + row * h2) & (width - 1));
+            long sum = 0;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, tick)) {
+                    sum += bucket.cells.get(cell);
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 窗口内请求量最大的IP
+     *
+     * @param n 数量
+     * @return 按估计请求数从大到小排列的热点
+     */
+    public List<HeavyHitter> topN(int n) {
+        long tick = tick();
+        IpHashSet seen = new IpHashSet();
+        List<HeavyHitter> candidates = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            if (!isLive(bucket, tick)) {
+                continue;
+            }
+            for (SpaceSaving stripe : bucket.stripes) {
+                stripe.forEach((high, low) -> {
+                    if (seen.add(high, low)) {
+                        candidates.add(new HeavyHitter(high, low, estimate(high, low)));
+                    }
+                });
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(b.count, a.count));
+        return candidates.size() > n ? new ArrayList<>(candidates.subList(0, n)) : candidates;
+    }
+
+    /**
+     * 清空全部计数
+     */
+    public void clear() {
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                bucket.reset(-1);
+            }
+        }
+    }
+
+    private long tick() {
+        return clock.getAsLong() / bucketMillis;
+    }
+
+    private boolean isLive(Bucket bucket, long tick) {
+        long bucketTick = bucket.tick;
+        return bucketTick >= 0 && bucketTick <= tick && tick - bucketTick < buckets.length;
+    }
+
+    /**
+     * 当前时间对应的桶，过期时先清空；落后的更新直接计入较新的桶，不会把它清空
+     */
+    private Bucket bucket(long tick) {
+        Bucket bucket = buckets[(int) (tick % buckets.length)];
+        if (bucket.tick < tick) {
+            synchronized (bucket) {
+                if (bucket.tick < tick) {
+                    bucket.reset(tick);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private static long hash(long high, long low) {
+        long h = high * 0x9e3779b97f4a7c15L + low;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * 热点IP
+     */
+    public static final class HeavyHitter {
+        private final long high;
+        private final long low;
+        private final long count;
+
+        HeavyHitter(long high, long low, long count) {
+            this.high = high;
+            this.low = low;
+            this.count = count;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        /**
+         * 窗口内的估计请求数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public String getAddress() {
+            return IpParser.format(high, low);
+        }
+
+        @Override
+        public String toString() {
+            return getAddress() + "=" + count;
+        }
+    }
+
+    private static final class Bucket {
+        volatile long tick = -1;
+        final AtomicLongArray cells;
+        final SpaceSaving[] stripes;
+
+        Bucket(int cells, int stripes, int stripeCapacity) {
+            this.cells = new AtomicLongArray(cells);
+            this.stripes = new SpaceSaving[stripes];
+            for (int i = 0; i < stripes; i++) {
+                this.stripes[i] = new SpaceSaving(stripeCapacity);
+            }
+        }
+
+        void reset(long tick) {
+            for (int i = 0; i < cells.length(); i++) {
+                cells.set(i, 0);
+            }
+            for (SpaceSaving stripe : stripes) {
+                stripe.clear();
+            }
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * Space-Saving候选集：最多保留capacity个IP，满时由估计值更大的新IP顶替计数最小者
+     * <p>
+     * 计数存放在以槽位为元素的最小堆中，IP到槽位的映射为{@link IpTable}（值为槽位 + 1），容量固定。
+     * 同一桶内的估计值只增不减，已在候选集中的IP的估计值不小于floor，
+     * 因此估计值小于floor的IP一定不在候选集中，无需加锁即可丢弃。
+     */
+    private static final class SpaceSaving {
+        private final int capacity;
+        private final long[] high;
+        private final long[] low;
+        private final long[] counts;
+        private final int[] heap;
+        private final int[] position;
+        private IpTable index;
+        private int size;
+        private volatile long floor;
+
+        SpaceSaving(int capacity) {
+            this.capacity = capacity;
+            this.high = new long[capacity];
+            this.low = new long[capacity];
+            this.counts = new long[capacity];
+            this.heap = new int[capacity];
+            this.position = new int[capacity];
+            this.index = new IpTable(true, true, capacity, false);
+        }
+
+        void offer(long h, long l, long estimate) {
+            if (estimate < floor) {
+                return;
+            }
+            synchronized (this) {
+                int slot = (int) index.get(h, l) - 1;
+                if (slot < 0 && size < capacity) {
+                    // 新IP放在堆尾，计数可能小于父节点，需要上浮
+                    slot = size;
+                    heap[size] = slot;
+                    position[slot] = size;
+                    size++;
+                    high[slot] = h;
+                    low[slot] = l;
+                    index.add(h, l, slot + 1);
+                    counts[slot] = estimate;
+                    siftUp(position[slot]);
+                } else {
+                    if (slot < 0) {
+                        // 顶替堆顶的最小者，计数只会变大，下沉即可
+                        slot = heap[0];
+                        if (estimate <= counts[slot]) {
+                            return;
+                        }
+                        index.remove(high[slot], low[slot]);
+                        high[slot] = h;
+                        low[slot] = l;
+                        index.add(h, l, slot + 1);
+                    }
+                    counts[slot] = Math.max(counts[slot], estimate);
+                    siftDown(position[slot]);
+                }
+                floor = size < capacity ? 0 : counts[heap[0]];
+            }
+        }
+
+        synchronized void forEach(IpHashSet.Visitor visitor) {
+            for (int i = 0; i < size; i++) {
+                visitor.accept(high[i], low[i]);
+            }
+        }
+
+        synchronized void clear() {
+            if (size > 0) {
+                index = new IpTable(true, true, capacity, false);
+                size = 0;
+                floor = 0;
+            }
+        }
+
+        private void siftDown(int i) {
+            int slot = heap[i];
+            long count = counts[slot];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                    child++;
+                }
+                if (counts[heap[child]] >= count) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = slot;
+            position[slot] = i;
+        }
+
+        private void siftUp(int i) {
+            int slot = heap[i];
+            long count = counts[slot];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (counts[heap[parent]] <= count) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = slot;
+            position[slot] = i;
+        }
+    }
+}
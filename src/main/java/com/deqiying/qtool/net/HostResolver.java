@@ -0,0 +1,28 @@
+package com.deqiying.qtool.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * 主机名解析器
+ * <p>
+ * 供{@link com.deqiying.qtool.UrlUtils.FetchOptions#resolver}使用，可替换为本地桩实现以便测试。
+ *
+ * @author deqiying
+ */
+@FunctionalInterface
+public interface HostResolver {
+    /**
+     * 使用JDK的{@link InetAddress#getAllByName(String)}解析
+     */
+    HostResolver SYSTEM = InetAddress::getAllByName;
+
+    /**
+     * 解析主机名，IP字面量直接返回
+     *
+     * @param host 主机名或IP字面量
+     * @return 全部地址，至少一个
+     * @throws IOException 解析失败或地址不允许访问
+     */
+    InetAddress[] resolve(String host) throws IOException;
+}
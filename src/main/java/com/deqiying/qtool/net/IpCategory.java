@@ -0,0 +1,320 @@
+package com.deqiying.qtool.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IANA特殊用途地址分类
+ * <p>
+ * 每个分类对应一个二进制位，{@link #classify(long, long)}一次返回地址所属全部分类的位掩码，0表示普通的全局单播地址。
+ * 分类表由IANA IPv4/IPv6特殊用途地址注册表（及组播、保留地址段）预先编译为以字节为步长的多级前缀表：
+ * 地址的每个字节索引一级表，命中叶子即得到结果，IPv4最多4次、IPv6最多16次数组访问，与地址段数量无关。
+ * <p>
+ * IPv4映射地址（::ffff:0:0/96）在{@link #IPV4_MAPPED}之外还带有其内嵌IPv4地址的分类；
+ * NAT64、6to4、Teredo地址的内嵌IPv4分类由{@link #classifyWithEmbedded(long, long)}给出。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class IpCategory {
+    /** 未指定地址：0.0.0.0/32、::/128 */
+    public static final int UNSPECIFIED = 1;
+    /** 本网络：0.0.0.0/8 */
+    public static final int THIS_NETWORK = 1 << 1;
+    /** 环回地址：127.0.0.0/8、::1/128 */
+    public static final int LOOPBACK = 1 << 2;
+    /** 私有地址（RFC 1918）：10.0.0.0/8、172.16.0.0/12、192.168.0.0/16 */
+    public static final int PRIVATE = 1 << 3;
+    /** 运营商级NAT共享地址（RFC 6598）：100.64.0.0/10 */
+    public static final int SHARED = 1 << 4;
+    /** 链路本地地址：169.254.0.0/16、fe80::/10 */
+    public static final int LINK_LOCAL = 1 << 5;
+    /** 唯一本地地址：fc00::/7 */
+    public static final int UNIQUE_LOCAL = 1 << 6;
+    /** 组播地址：224.0.0.0/4、ff00::/8 */
+    public static final int MULTICAST = 1 << 7;
+    /** 受限广播地址：255.255.255.255/32 */
+    public static final int BROADCAST = 1 << 8;
+    /** 文档示例地址：192.0.2.0/24、198.51.100.0/24、203.0.113.0/24、2001:db8::/32、3fff::/20 */
+    public static final int DOCUMENTATION = 1 << 9;
+    /** 基准测试地址：198.18.0.0/15、2001:2::/48 */
+    public static final int BENCHMARKING = 1 << 10;
+    /** 保留地址：240.0.0.0/4 */
+    public static final int RESERVED = 1 << 11;
+    /** IETF协议分配：192.0.0.0/24、2001::/23 */
+    public static final int IETF_PROTOCOL = 1 << 12;
+    /** 6to4中继任播（已废弃）：192.88.99.0/24 */
+    public static final int RELAY_ANYCAST = 1 << 13;
+    /** IPv4映射地址：::ffff:0:0/96 */
+    public static final int IPV4_MAPPED = 1 << 14;
+    /** IPv4/IPv6转换：64:ff9b::/96、64:ff9b:1::/48 */
+    public static final int NAT64 = 1 << 15;
+    /** Teredo：2001::/32 */
+    public static final int TEREDO = 1 << 16;
+    /** 6to4：2002::/16 */
+    public static final int SIX_TO_FOUR = 1 << 17;
+    /** 丢弃前缀：100::/64 */
+    public static final int DISCARD = 1 << 18;
+    /** 站点本地地址（已废弃）：fec0::/10 */
+    public static final int SITE_LOCAL = 1 << 19;
+    /** AS112 DNS反向解析服务（可全局路由）：192.31.196.0/24、192.175.48.0/24、2620:4f:8000::/48 */
+    public static final int AS112 = 1 << 20;
+    /** 自动组播隧道（AMT）中继任播（可全局路由）：192.52.193.0/24 */
+    public static final int AMT = 1 << 21;
+    /** SRv6段标识符（RFC 9602）：5f00::/16 */
+    public static final int SRV6_SID = 1 << 22;
+
+    /**
+     * 不可全局路由的分类，地址带有其中任一位时不应作为公网地址访问
+     */
+    public static final int NOT_GLOBAL = UNSPECIFIED | THIS_NETWORK | LOOPBACK | PRIVATE | SHARED | LINK_LOCAL
+            | UNIQUE_LOCAL | MULTICAST | BROADCAST | DOCUMENTATION | BENCHMARKING | RESERVED | IETF_PROTOCOL
+            | DISCARD | SITE_LOCAL | SRV6_SID;
+
+    private static final String[] NAMES = {
+            "UNSPECIFIED", "THIS_NETWORK", "LOOPBACK", "PRIVATE", "SHARED", "LINK_LOCAL", "UNIQUE_LOCAL",
+            "MULTICAST", "BROADCAST", "DOCUMENTATION", "BENCHMARKING", "RESERVED", "IETF_PROTOCOL",
+            "RELAY_ANYCAST", "IPV4_MAPPED", "NAT64", "TEREDO", "SIX_TO_FOUR", "DISCARD", "SITE_LOCAL",
+            "AS112", "AMT", "SRV6_SID"
+    };
+
+    private static final StrideTable IPV4 = new StrideTable();
+    private static final StrideTable IPV6 = new StrideTable();
+
+    static {
+        ipv4(0x00000000, 8, THIS_NETWORK);
+        ipv4(0x00000000, 32, UNSPECIFIED);
+        ipv4(0x0a000000, 8, PRIVATE);
+        ipv4(0x64400000, 10, SHARED);
+        ipv4(0x7f000000, 8, LOOPBACK);
+        ipv4(0xa9fe0000, 16, LINK_LOCAL);
+        ipv4(0xac100000, 12, PRIVATE);
+        ipv4(0xc0000000, 24, IETF_PROTOCOL);
+        ipv4(0xc0000200, 24, DOCUMENTATION);
+        ipv4(0xc01fc400, 24, AS112);
+        ipv4(0xc034c100, 24, AMT);
+        ipv4(0xc0586300, 24, RELAY_ANYCAST);
+        ipv4(0xc0a80000, 16, PRIVATE);
+        ipv4(0xc0af3000, 24, AS112);
+        ipv4(0xc6120000, 15, BENCHMARKING);
+        ipv4(0xc6336400, 24, DOCUMENTATION);
+        ipv4(0xcb007100, 24, DOCUMENTATION);
+        ipv4(0xe0000000, 4, MULTICAST);
+        ipv4(0xf0000000, 4, RESERVED);
+        ipv4(0xffffffff, 32, BROADCAST);
+
+        ipv6(0, 0, 128, UNSPECIFIED);
+        ipv6(0, 1, 128, LOOPBACK);
+        ipv6(0, IpParser.IPV4_MAPPED_PREFIX, 96, IPV4_MAPPED);
+        ipv6(0x0064ff9b00000000L, 0, 96, NAT64);
+        ipv6(0x0064ff9b00010000L, 0, 48, NAT64);
+        ipv6(0x0100000000000000L, 0, 64, DISCARD);
+        ipv6(0x2001000000000000L, 0, 23, IETF_PROTOCOL);
+        ipv6(0x2001000000000000L, 0, 32, TEREDO);
+        ipv6(0x2001000200000000L, 0, 48, BENCHMARKING);
+        ipv6(0x20010db800000000L, 0, 32, DOCUMENTATION);
+        ipv6(0x2002000000000000L, 0, 16, SIX_TO_FOUR);
+        ipv6(0x2620004f80000000L, 0, 48, AS112);
+        ipv6(0x3fff000000000000L, 0, 20, DOCUMENTATION);
+        ipv6(0x5f00000000000000L, 0, 16, SRV6_SID);
+        ipv6(0xfc00000000000000L, 0, 7, UNIQUE_LOCAL);
+        ipv6(0xfe80000000000000L, 0, 10, LINK_LOCAL);
+        ipv6(0xfec0000000000000L, 0, 10, SITE_LOCAL);
+        ipv6(0xff00000000000000L, 0, 8, MULTICAST);
+    }
+
+    private IpCategory() {
+    }
+
+    /**
+     * 获取IP地址的分类
+     *
+     * @param ip IP地址
+     * @return 分类位掩码，0表示全局单播地址；不是合法IP时返回-1
+     */
+    public static int classify(CharSequence ip) {
+        return ip == null ? -1 : classify(ip, 0, ip.length());
+    }
+
+    /**
+     * 获取文本指定区间中的IP地址的分类，不分配对象
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 分类位掩码，0表示全局单播地址；不是合法IP时返回-1
+     */
+    public static int classify(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return classifyIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, from, to, scratch) ? classify(scratch[0], scratch[1]) : -1;
+    }
+
+    /**
+     * 获取IPv4地址的分类
+     *
+     * @param address 32位地址
+     * @return 分类位掩码，0表示全局单播地址
+     */
+    public static int classifyIpv4(int address) {
+        int[] entries = IPV4.entries;
+        int entry = entries[address >>> 24];
+        for (int shift = 16; entry < 0; shift -= 8) {
+            entry = entries[((entry & Integer.MAX_VALUE) << 8) | ((address >>> shift) & 0xff)];
+        }
+        return entry;
+    }
+
+    /**
+     * 获取128位地址的分类
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 分类位掩码，0表示全局单播地址
+     */
+    public static int classify(long high, long low) {
+        int[] entries = IPV6.entries;
+        int entry = entries[(int) (high >>> 56)];
+        for (int index = 1; entry < 0; index++) {
+            long word = index < 8 ? high : low;
+            int b = (int) (word >>> (56 - (index & 7) * 8)) & 0xff;
+            entry = entries[((entry & Integer.MAX_VALUE) << 8) | b];
+        }
+        if ((entry & IPV4_MAPPED) != 0) {
+            entry |= classifyIpv4((int) low);
+        }
+        return entry;
+    }
+
+    /**
+     * 获取128位地址的分类，并附加其内嵌IPv4地址的分类，用于判断地址实际能到达的网络（如SSRF校验）
+     * <ul>
+     * <li>NAT64（64:ff9b::/96及64:ff9b:1::/48）：按/96布局取低32位；本地前缀使用其他长度时无法解析</li>
+     * <li>6to4（2002::/16）：第16~47位</li>
+     * <li>Teredo（2001::/32）：服务器地址（第32~63位）与客户端地址（低32位取反）</li>
+     * </ul>
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 分类位掩码
+     */
+    public static int classifyWithEmbedded(long high, long low) {
+        int categories = classify(high, low);
+        if ((categories & NAT64) != 0) {
+            categories |= classifyIpv4((int) low);
+        }
+        if ((categories & SIX_TO_FOUR) != 0) {
+            categories |= classifyIpv4((int) (high >>> 16));
+        }
+        if ((categories & TEREDO) != 0) {
+            categories |= classifyIpv4((int) high) | classifyIpv4(~(int) low);
+        }
+        return categories;
+    }
+
+    /**
+     * 是否为全局单播地址（不带{@link #NOT_GLOBAL}中的任一分类）
+     *
+     * @param categories 分类位掩码
+     */
+    public static boolean isGlobal(int categories) {
+        return categories >= 0 && (categories & NOT_GLOBAL) == 0;
+    }
+
+    /**
+     * 分类位掩码对应的名称
+     *
+     * @param categories 分类位掩码
+     * @return 名称列表，按位从低到高
+     */
+    public static List<String> names(int categories) {
+        List<String> names = new ArrayList<>();
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if ((categories & (1 << bit)) != 0) {
+                names.add(NAMES[bit]);
+            }
+        }
+        return names;
+    }
+
+    private static void ipv4(int address, int length, int category) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = (byte) (address >>> (24 - 8 * i));
+        }
+        IPV4.add(bytes, length, category);
+    }
+
+    private static void ipv6(long high, long low, int length, int category) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        IPV6.add(bytes, length, category);
+    }
+
+    /**
+     * 以字节为步长的多级前缀表
+     * <p>
+     * 每级表256项，连续存放在entries中，第t级表占{@code [t * 256, t * 256 + 256)}，根表为第0张。
+     * 非负项为叶子，即分类位掩码；负项表示需要继续查下一个字节，低31位为下一级表的编号。
+     * 地址段按前缀扩展写入：不足整字节的前缀覆盖该级表中的一段连续项，更长的地址段所在的下级表继承上级的掩码。
+     */
+    private static final class StrideTable {
+        int[] entries = new int[256];
+        int tables = 1;
+
+        void add(byte[] address, int length, int category) {
+            int table = 0;
+            int depth = 0;
+            // 下降到前缀最后一个（可能不完整的）字节所在的表
+            while (length - depth * 8 > 8) {
+                int slot = (table << 8) | (address[depth] & 0xff);
+                int entry = entries[slot];
+                if (entry >= 0) {
+                    int child = newTable(entry);
+                    entries[slot] = child | Integer.MIN_VALUE;
+                    table = child;
+                } else {
+                    table = entry & Integer.MAX_VALUE;
+                }
+                depth++;
+            }
+            int bits = length - depth * 8;
+            int first = bits == 0 ? 0 : (address[depth] & 0xff) & (0xff << (8 - bits));
+            int count = 1 << (8 - bits);
+            for (int i = first; i < first + count; i++) {
+                mark((table << 8) | i, category);
+            }
+        }
+
+        /**
+         * 将分类加到某一项上，该项指向下级表时加到下级表的全部项
+         */
+        private void mark(int slot, int category) {
+            int entry = entries[slot];
+            if (entry >= 0) {
+                entries[slot] = entry | category;
+                return;
+            }
+            int base = (entry & Integer.MAX_VALUE) << 8;
+            for (int i = 0; i < 256; i++) {
+                mark(base + i, category);
+            }
+        }
+
+        private int newTable(int inherited) {
+            int table = tables++;
+            if (entries.length < tables << 8) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            Arrays.fill(entries, table << 8, (table + 1) << 8, inherited);
+            return table;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.deqiying.qtool.net;
+
+/**
+ * IP地址计数器
+ * <p>
+ * 以原始整数为键、long为值的开放寻址哈希表：IPv4每条占12字节、IPv6每条占24字节（负载因子0.75），
+ * 代替{@code HashMap<String, Long>}，计数不装箱。IPv4与IPv6分表存放，IPv4映射地址按IPv4处理。
+ * <p>
+ * 数千万条时可用{@link #offHeap(int)}将表放在直接内存中。单张表受{@link java.nio.ByteBuffer}容量限制，
+ * IPv4最多约1.1亿条、IPv6最多约5800万条。
+ * <p>
+ * 非线程安全。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class IpCounterMap {
+
+    /**
+     * 遍历计数，IPv4以IPv4映射地址给出，可用{@link IpParser#isIpv4Mapped(long, long)}区分
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void accept(long high, long low, long count);
+    }
+
+    private final int expectedSize;
+    private final boolean direct;
+    private IpTable ipv4;
+    private IpTable ipv6;
+
+    public IpCounterMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize 预计条目数，IPv4与IPv6表首次使用时按此预分配
+     */
+    public IpCounterMap(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    private IpCounterMap(int expectedSize, boolean direct) {
+        this.expectedSize = expectedSize;
+        this.direct = direct;
+    }
+
+    /**
+     * 创建表存放在直接内存中的计数器，内存随计数器对象被回收时释放
+     *
+     * @param expectedSize 预计条目数
+     * @return IP地址计数器
+     */
+    public static IpCounterMap offHeap(int expectedSize) {
+        return new IpCounterMap(expectedSize, true);
+    }
+
+    /**
+     * 计数加一
+     *
+     * @param ip IP地址
+     * @return 增加后的计数
+     * @throws IllegalArgumentException 不是合法IP
+     */
+    public long increment(CharSequence ip) {
+        return add(ip, 0, ip.length(), 1);
+    }
+
+    /**
+     * 文本指定区间中的IP地址计数增加delta
+     *
+     * @param ip    文本
+     * @param from  起始下标（包含）
+     * @param to    结束下标（不包含）
+     * @param delta 增量
+     * @return 增加后的计数
+     * @throws IllegalArgumentException 不是合法IP
+     */
+    public long add(CharSequence ip, int from, int to, long delta) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return addIpv4((int) v4, delta);
+        }
+        long[] scratch = IpParser.scratch();
+        if (!IpParser.parseIpv6(ip, from, to, scratch)) {
+            throw new IllegalArgumentException("不是合法的IP地址：" + ip.subSequence(from, to));
+        }
+        return add(scratch[0], scratch[1], delta);
+    }
+
+    /**
+     * IPv4地址计数增加delta
+     *
+     * @param address 32位地址
+     * @param delta   增量
+     * @return 增加后的计数
+     */
+    public long addIpv4(int address, long delta) {
+        if (ipv4 == null) {
+            ipv4 = new IpTable(false, true, expectedSize, direct);
+        }
+        return ipv4.add(address, delta);
+    }
+
+    /**
+     * 128位地址计数增加delta
+     *
+     * @param high  高64位
+     * @param low   低64位
+     * @param delta 增量
+     * @return 增加后的计数
+     */
+    public long add(long high, long low, long delta) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return addIpv4((int) low, delta);
+        }
+        if (ipv6 == null) {
+            ipv6 = new IpTable(true, true, expectedSize, direct);
+        }
+        return ipv6.add(high, low, delta);
+    }
+
+    /**
+     * 获取计数
+     *
+     * @param ip IP地址
+     * @return 计数，不存在或不是合法IP时返回0
+     */
+    public long get(CharSequence ip) {
+        return ip == null ? 0 : get(ip, 0, ip.length());
+    }
+
+    /**
+     * 获取文本指定区间中的IP地址的计数
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 计数，不存在或不是合法IP时返回0
+     */
+    public long get(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return getIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, from, to, scratch) ? get(scratch[0], scratch[1]) : 0;
+    }
+
+    public long getIpv4(int address) {
+        return ipv4 == null ? 0 : ipv4.get(address);
+    }
+
+    public long get(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return getIpv4((int) low);
+        }
+        return ipv6 == null ? 0 : ipv6.get(high, low);
+    }
+
+    public boolean containsIpv4(int address) {
+        return ipv4 != null && ipv4.contains(address);
+    }
+
+    public boolean contains(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return containsIpv4((int) low);
+        }
+        return ipv6 != null && ipv6.contains(high, low);
+    }
+
+    /**
+     * 移除IP地址的计数
+     *
+     * @param ip IP地址
+     * @return 是否存在并已移除，不是合法IP时返回false
+     */
+    public boolean remove(CharSequence ip) {
+        if (ip == null) {
+            return false;
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parse(ip, 0, ip.length(), scratch) != IpParser.FAMILY_NONE && remove(scratch[0], scratch[1]);
+    }
+
+    public boolean removeIpv4(int address) {
+        return ipv4 != null && ipv4.remove(address);
+    }
+
+    public boolean remove(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return removeIpv4((int) low);
+        }
+        return ipv6 != null && ipv6.remove(high, low);
+    }
+
+    public int size() {
+        return (ipv4 == null ? 0 : ipv4.size()) + (ipv6 == null ? 0 : ipv6.size());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 清空计数器并释放表
+     */
+    public void clear() {
+        ipv4 = null;
+        ipv6 = null;
+    }
+
+    /**
+     * 表占用的字节数（不含对象头等固定开销）
+     */
+    public long memoryBytes() {
+        return (ipv4 == null ? 0 : ipv4.bytes()) + (ipv6 == null ? 0 : ipv6.bytes());
+    }
+
+    /**
+     * 遍历全部计数，顺序不确定；遍历期间不得修改计数器
+     *
+     * @param visitor 访问者
+     */
+    public void forEach(Visitor visitor) {
+        if (ipv4 != null) {
+            ipv4.forEach(visitor::accept);
+        }
+        if (ipv6 != null) {
+            ipv6.forEach(visitor::accept);
+        }
+    }
+}
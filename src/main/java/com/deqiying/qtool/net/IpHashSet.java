@@ -0,0 +1,220 @@
+package com.deqiying.qtool.net;
+
+/**
+ * IP地址集合
+ * <p>
+ * 以原始整数为键的开放寻址哈希集合：IPv4每条占4字节、IPv6每条占16字节（负载因子0.75），
+ * 代替{@code HashSet<String>}约100字节一条的开销，增删查不装箱。IPv4与IPv6分表存放，
+ * IPv4映射地址（{@code ::ffff:a.b.c.d}）按IPv4处理，两种表在首次使用时才分配。
+ * <p>
+ * 数千万条时可用{@link #offHeap(int)}将表放在直接内存中，不占用堆、不参与GC扫描。
+ * 单张表受{@link java.nio.ByteBuffer}容量限制，IPv4最多约2.3亿条、IPv6最多约5800万条。
+ * <p>
+ * 非线程安全。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class IpHashSet {
+
+    /**
+     * 遍历IP，IPv4以IPv4映射地址给出，可用{@link IpParser#isIpv4Mapped(long, long)}区分
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void accept(long high, long low);
+    }
+
+    private final int expectedSize;
+    private final boolean direct;
+    private IpTable ipv4;
+    private IpTable ipv6;
+
+    public IpHashSet() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize 预计条目数，IPv4与IPv6表首次使用时按此预分配
+     */
+    public IpHashSet(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    private IpHashSet(int expectedSize, boolean direct) {
+        this.expectedSize = expectedSize;
+        this.direct = direct;
+    }
+
+    /**
+     * 创建表存放在直接内存中的集合，内存随集合对象被回收时释放
+     *
+     * @param expectedSize 预计条目数
+     * @return IP地址集合
+     */
+    public static IpHashSet offHeap(int expectedSize) {
+        return new IpHashSet(expectedSize, true);
+    }
+
+    /**
+     * 添加IP地址
+     *
+     * @param ip IP地址
+     * @return 是否新加入
+     * @throws IllegalArgumentException 不是合法IP
+     */
+    public boolean add(CharSequence ip) {
+        return add(ip, 0, ip.length());
+    }
+
+    /**
+     * 添加文本指定区间中的IP地址
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 是否新加入
+     * @throws IllegalArgumentException 不是合法IP
+     */
+    public boolean add(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return addIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        if (!IpParser.parseIpv6(ip, from, to, scratch)) {
+            throw new IllegalArgumentException("不是合法的IP地址：" + ip.subSequence(from, to));
+        }
+        return add(scratch[0], scratch[1]);
+    }
+
+    /**
+     * 添加IPv4地址
+     *
+     * @param address 32位地址
+     * @return 是否新加入
+     */
+    public boolean addIpv4(int address) {
+        if (ipv4 == null) {
+            ipv4 = new IpTable(false, false, expectedSize, direct);
+        }
+        return ipv4.insert(address);
+    }
+
+    /**
+     * 添加128位地址
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 是否新加入
+     */
+    public boolean add(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return addIpv4((int) low);
+        }
+        if (ipv6 == null) {
+            ipv6 = new IpTable(true, false, expectedSize, direct);
+        }
+        return ipv6.insert(high, low);
+    }
+
+    /**
+     * 是否包含IP地址
+     *
+     * @param ip IP地址
+     * @return 是否包含，不是合法IP时返回false
+     */
+    public boolean contains(CharSequence ip) {
+        return ip != null && contains(ip, 0, ip.length());
+    }
+
+    /**
+     * 是否包含文本指定区间中的IP地址
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 是否包含，不是合法IP时返回false
+     */
+    public boolean contains(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return containsIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, from, to, scratch) && contains(scratch[0], scratch[1]);
+    }
+
+    public boolean containsIpv4(int address) {
+        return ipv4 != null && ipv4.contains(address);
+    }
+
+    public boolean contains(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return containsIpv4((int) low);
+        }
+        return ipv6 != null && ipv6.contains(high, low);
+    }
+
+    /**
+     * 移除IP地址
+     *
+     * @param ip IP地址
+     * @return 是否存在并已移除，不是合法IP时返回false
+     */
+    public boolean remove(CharSequence ip) {
+        if (ip == null) {
+            return false;
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parse(ip, 0, ip.length(), scratch) != IpParser.FAMILY_NONE && remove(scratch[0], scratch[1]);
+    }
+
+    public boolean removeIpv4(int address) {
+        return ipv4 != null && ipv4.remove(address);
+    }
+
+    public boolean remove(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return removeIpv4((int) low);
+        }
+        return ipv6 != null && ipv6.remove(high, low);
+    }
+
+    public int size() {
+        return (ipv4 == null ? 0 : ipv4.size()) + (ipv6 == null ? 0 : ipv6.size());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 清空集合并释放表
+     */
+    public void clear() {
+        ipv4 = null;
+        ipv6 = null;
+    }
+
+    /**
+     * 表占用的字节数（不含对象头等固定开销）
+     */
+    public long memoryBytes() {
+        return (ipv4 == null ? 0 : ipv4.bytes()) + (ipv6 == null ? 0 : ipv6.bytes());
+    }
+
+    /**
+     * 遍历全部IP，顺序不确定；遍历期间不得修改集合
+     *
+     * @param visitor 访问者
+     */
+    public void forEach(Visitor visitor) {
+        if (ipv4 != null) {
+            ipv4.forEach((high, low, value) -> visitor.accept(high, low));
+        }
+        if (ipv6 != null) {
+            ipv6.forEach((high, low, value) -> visitor.accept(high, low));
+        }
+    }
+}
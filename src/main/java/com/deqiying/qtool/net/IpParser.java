@@ -0,0 +1,347 @@
+package com.deqiying.qtool.net;
+
+/**
+ * IP地址字面量解析器
+ * <p>
+ * 直接解析{@link CharSequence}的指定区间，不做DNS查询、不创建{@link java.net.InetAddress}，解析过程不分配对象。
+ * IPv4结果为无符号32位整数（以long返回，失败时为{@link #INVALID}）；IPv6结果为两个long（高64位、低64位），
+ * 写入调用方提供的数组，可直接用于分类与范围匹配。
+ * <p>
+ * IPv4只接受标准的点分十进制（四段、每段0-255），不接受前导零（如010.0.0.1，部分系统按八进制解析，存在歧义）
+ * 以及127.1、2130706433等简写形式。IPv6支持{@code ::}压缩、末尾嵌入IPv4（如{@code ::ffff:1.2.3.4}）、
+ * 区域标识（{@code %eth0}，解析时忽略）以及URL中的方括号形式（{@code [::1]}）。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class IpParser {
+    /**
+     * 解析失败
+     */
+    public static final long INVALID = -1L;
+
+    /**
+     * {@link #parse(CharSequence, int, int, long[])}的返回值：解析失败
+     */
+    public static final int FAMILY_NONE = 0;
+
+    /**
+     * {@link #parse(CharSequence, int, int, long[])}的返回值：IPv4
+     */
+    public static final int FAMILY_IPV4 = 4;
+
+    /**
+     * {@link #parse(CharSequence, int, int, long[])}的返回值：IPv6
+     */
+    public static final int FAMILY_IPV6 = 6;
+
+    /**
+     * IPv4映射地址（::ffff:0:0/96）低64位的前缀
+     */
+    static final long IPV4_MAPPED_PREFIX = 0x0000ffff00000000L;
+
+    /**
+     * 解析IPv6地址用的线程内复用数组，避免热路径上的分配
+     */
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private IpParser() {
+    }
+
+    /**
+     * 解析IPv4地址
+     *
+     * @param s 文本
+     * @return 无符号32位地址，失败时返回{@link #INVALID}
+     */
+    public static long parseIpv4(CharSequence s) {
+        return s == null ? INVALID : parseIpv4(s, 0, s.length());
+    }
+
+    /**
+     * 解析文本指定区间中的IPv4地址
+     *
+     * @param s    文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 无符号32位地址，失败时返回{@link #INVALID}
+     */
+    public static long parseIpv4(CharSequence s, int from, int to) {
+        long result = 0;
+        int octets = 0;
+        int i = from;
+        while (i < to) {
+            int start = i;
+            int value = 0;
+            while (i < to) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (i - start == 3) {
+                    return INVALID;
+                }
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            int digits = i - start;
+            if (digits == 0 || value > 255 || (digits > 1 && s.charAt(start) == '0')) {
+                return INVALID;
+            }
+            result = (result << 8) | value;
+            if (++octets == 4) {
+                return i == to ? result : INVALID;
+            }
+            if (i >= to || s.charAt(i) != '.') {
+                return INVALID;
+            }
+            i++;
+        }
+        return INVALID;
+    }
+
+    /**
+     * 解析IPv6地址
+     *
+     * @param s   文本
+     * @param out 长度至少为2的数组，成功时写入高64位与低64位
+     * @return 是否解析成功
+     */
+    public static boolean parseIpv6(CharSequence s, long[] out) {
+        return s != null && parseIpv6(s, 0, s.length(), out);
+    }
+
+    /**
+     * 解析文本指定区间中的IPv6地址
+     *
+     * @param s    文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @param out  长度至少为2的数组，成功时写入高64位与低64位
+     * @return 是否解析成功
+     */
+    public static boolean parseIpv6(CharSequence s, int from, int to, long[] out) {
+        if (to - from >= 2 && s.charAt(from) == '[') {
+            if (s.charAt(to - 1) != ']') {
+                return false;
+            }
+            from++;
+            to--;
+        }
+        // 忽略区域标识
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '%') {
+                if (i == to - 1) {
+                    return false;
+                }
+                to = i;
+                break;
+            }
+        }
+        if (to - from < 2) {
+            return false;
+        }
+        // 所有分组依次移入128位累加器，记录::出现时已有的分组数，最后在该位置补零
+        long hi = 0;
+        long lo = 0;
+        int groups = 0;
+        int gapAt = -1;
+        int i = from;
+        if (s.charAt(i) == ':') {
+            if (s.charAt(i + 1) != ':') {
+                return false;
+            }
+            gapAt = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i;
+            int value = 0;
+            while (i < to) {
+                int digit = hex(s.charAt(i));
+                if (digit < 0) {
+                    break;
+                }
+                if (i - start == 4) {
+                    return false;
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < to && s.charAt(i) == '.') {
+                // 嵌入的IPv4只能出现在末尾，占两个分组
+                long v4 = parseIpv4(s, start, to);
+                if (v4 < 0 || groups > 6) {
+                    return false;
+                }
+                hi = (hi << 32) | (lo >>> 32);
+                lo = (lo << 32) | v4;
+                groups += 2;
+                i = to;
+                break;
+            }
+            if (i == start || groups == 8) {
+                return false;
+            }
+            hi = (hi << 16) | (lo >>> 48);
+            lo = (lo << 16) | value;
+            groups++;
+            if (i == to) {
+                break;
+            }
+            if (s.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < to && s.charAt(i) == ':') {
+                if (gapAt >= 0) {
+                    return false;
+                }
+                gapAt = groups;
+                i++;
+            } else if (i == to) {
+                // 以单个冒号结尾
+                return false;
+            }
+        }
+        if (gapAt < 0) {
+            if (groups != 8) {
+                return false;
+            }
+        } else {
+            if (groups > 7) {
+                return false;
+            }
+            // ::之后的分组保持在低位，之前的分组左移补零的宽度
+            int tailBits = (groups - gapAt) * 16;
+            long tailHi = tailBits > 64 ? hi & ((1L << (tailBits - 64)) - 1) : 0;
+            long tailLo = tailBits >= 64 ? lo : lo & ((1L << tailBits) - 1);
+            long headHi = hi ^ tailHi;
+            long headLo = lo ^ tailLo;
+            int shift = (8 - groups) * 16;
+            if (gapAt == 0) {
+                headHi = 0;
+                headLo = 0;
+            } else if (shift >= 64) {
+                headHi = headLo << (shift - 64);
+                headLo = 0;
+            } else {
+                headHi = (headHi << shift) | (headLo >>> (64 - shift));
+                headLo <<= shift;
+            }
+            hi = headHi | tailHi;
+            lo = headLo | tailLo;
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+
+    /**
+     * 解析IPv4或IPv6地址，统一为128位表示，IPv4以IPv4映射地址（::ffff:a.b.c.d）表示
+     *
+     * @param s    文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @param out  长度至少为2的数组，成功时写入高64位与低64位
+     * @return {@link #FAMILY_IPV4}、{@link #FAMILY_IPV6}或{@link #FAMILY_NONE}
+     */
+    public static int parse(CharSequence s, int from, int to, long[] out) {
+        long v4 = parseIpv4(s, from, to);
+        if (v4 >= 0) {
+            out[0] = 0;
+            out[1] = IPV4_MAPPED_PREFIX | v4;
+            return FAMILY_IPV4;
+        }
+        return parseIpv6(s, from, to, out) ? FAMILY_IPV6 : FAMILY_NONE;
+    }
+
+    /**
+     * 是否为IPv4映射地址（::ffff:0:0/96）
+     *
+     * @param high 高64位
+     * @param low  低64位
+     */
+    public static boolean isIpv4Mapped(long high, long low) {
+        return high == 0 && (low >>> 32) == 0xffffL;
+    }
+
+    /**
+     * 当前线程复用的长度为2的数组，仅供本包内不会重入的解析-查询调用使用
+     */
+    static long[] scratch() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * ASCII十六进制数字的值，不接受其他Unicode数字
+     */
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * 格式化IPv4地址
+     *
+     * @param address 无符号32位地址
+     * @return 点分十进制文本
+     */
+    public static String formatIpv4(int address) {
+        return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff)
+                + "." + (address & 0xff);
+    }
+
+    /**
+     * 格式化128位地址，IPv4映射地址输出为点分十进制，其余按RFC 5952输出（小写、最长的连续零分组压缩为::）
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 地址文本
+     */
+    public static String format(long high, long low) {
+        if (isIpv4Mapped(high, low)) {
+            return formatIpv4((int) low);
+        }
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - 16 * i)) & 0xffff;
+            groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xffff;
+        }
+        // 找出最长的连续零分组，长度至少为2才压缩
+        int gapStart = -1;
+        int gapLength = 1;
+        for (int i = 0; i < 8; ) {
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > gapLength) {
+                gapStart = i;
+                gapLength = j - i;
+            }
+            i = j == i ? i + 1 : j;
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == gapStart) {
+                sb.append("::");
+                i += gapLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,520 @@
+package com.deqiying.qtool.net;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存映射的IP地址段数据库，用于按IP查询ASN、地区等附加信息
+ * <p>
+ * 由{@link Builder}将地址段列表编译为有序的二进制文件，运行时{@link #open(Path)}以只读方式映射，
+ * 不逐条加载到堆中：打开几乎不耗时，同一台机器上的多个JVM共享操作系统的页缓存。
+ * 查询为二分查找，IPv4先按前16位的索引表缩小范围，通常只需几次比较；全部读取为对映射区的绝对读取，线程安全。
+ * <p>
+ * 文件格式（大端序）：
+ * <pre>
+ * 头部      magic "QIPR"、版本、IPv4段数、IPv6段数、值数量、值数据字节数（各4字节）
+ * IPv4      前16位索引表（65537个int）、起始地址、结束地址、值编号（按列存放）
+ * IPv6      起始地址高/低64位、结束地址高/低64位、值编号（按列存放，8字节对齐）
+ * 值        偏移表（值数量 + 1个int）、UTF-8数据
+ * </pre>
+ * 值去重存放，{@link #lookupId(long, long)}返回值编号而不创建字符串，{@link #value(int)}解码后缓存。
+ * 映射区受单个{@link MappedByteBuffer}限制，文件不超过2GB。
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class IpRangeDatabase {
+    private static final int MAGIC = 0x51495052;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int INDEX_SLOTS = 65537;
+
+    private final ByteBuffer buffer;
+    private final Layout layout;
+    private final int ipv4Count;
+    private final int ipv6Count;
+    private final int valueCount;
+    private final String[] values;
+
+    private IpRangeDatabase(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("不是IP地址段数据库文件");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("不支持的IP地址段数据库版本: " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.ipv4Count = buffer.getInt(8);
+        this.ipv6Count = buffer.getInt(12);
+        this.valueCount = buffer.getInt(16);
+        this.layout = new Layout(ipv4Count, ipv6Count, valueCount);
+        if (layout.valueData + buffer.getInt(20) != buffer.capacity()) {
+            throw new IOException("IP地址段数据库文件不完整");
+        }
+        this.values = new String[valueCount];
+    }
+
+    /**
+     * 以只读方式映射数据库文件
+     *
+     * @param file 由{@link Builder#writeTo(Path)}生成的文件
+     * @return 数据库
+     * @throws IOException 读取失败或文件格式错误
+     */
+    public static IpRangeDatabase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("IP地址段数据库文件超过2GB: " + file);
+            }
+            // 映射在通道关闭后依然有效，随缓冲区对象被回收时解除
+            return new IpRangeDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 地址段数量（合并相邻的同值地址段之后）
+     */
+    public int rangeCount() {
+        return ipv4Count + ipv6Count;
+    }
+
+    /**
+     * 不同值的数量
+     */
+    public int valueCount() {
+        return valueCount;
+    }
+
+    /**
+     * 查询IP所在地址段的值
+     *
+     * @param ip IP地址
+     * @return 值，未命中或不是合法IP时返回null
+     */
+    public String lookup(CharSequence ip) {
+        return ip == null ? null : value(lookupId(ip, 0, ip.length()));
+    }
+
+    public String lookupIpv4(int address) {
+        return value(lookupIdIpv4(address));
+    }
+
+    public String lookup(long high, long low) {
+        return value(lookupId(high, low));
+    }
+
+    /**
+     * 查询文本指定区间中的IP所在地址段的值编号，不分配对象
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 值编号，未命中或不是合法IP时返回-1
+     */
+    public int lookupId(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return lookupIdIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, from, to, scratch) ? lookupId(scratch[0], scratch[1]) : -1;
+    }
+
+    /**
+     * 查询IPv4地址所在地址段的值编号
+     *
+     * @param address 32位地址
+     * @return 值编号，未命中时返回-1
+     */
+    public int lookupIdIpv4(int address) {
+        // 起始地址不大于address的地址段都在索引表给出的区间之前或之中
+        int slot = layout.ipv4Index + (address >>> 16) * 4;
+        int lo = buffer.getInt(slot);
+        int hi = buffer.getInt(slot + 4);
+        int key = address ^ Integer.MIN_VALUE;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((buffer.getInt(layout.ipv4Start + mid * 4) ^ Integer.MIN_VALUE) <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int range = lo - 1;
+        if (range < 0 || (buffer.getInt(layout.ipv4End + range * 4) ^ Integer.MIN_VALUE) < key) {
+            return -1;
+        }
+        return buffer.getInt(layout.ipv4Value + range * 4);
+    }
+
+    /**
+     * 查询128位地址所在地址段的值编号，IPv4映射地址按IPv4查询
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 值编号，未命中时返回-1
+     */
+    public int lookupId(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return lookupIdIpv4((int) low);
+        }
+        int lo = 0;
+        int hi = ipv6Count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buffer.getLong(layout.ipv6StartHigh + mid * 8), buffer.getLong(layout.ipv6StartLow + mid * 8),
+                    high, low) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int range = lo - 1;
+        if (range < 0 || compare(buffer.getLong(layout.ipv6EndHigh + range * 8),
+                buffer.getLong(layout.ipv6EndLow + range * 8), high, low) < 0) {
+            return -1;
+        }
+        return buffer.getInt(layout.ipv6Value + range * 4);
+    }
+
+    /**
+     * 值编号对应的值，首次访问时解码并缓存
+     *
+     * @param id 值编号
+     * @return 值，编号为-1时返回null
+     */
+    public String value(int id) {
+        if (id < 0) {
+            return null;
+        }
+        String value = values[id];
+        if (value == null) {
+            int start = buffer.getInt(layout.valueOffsets + id * 4);
+            int end = buffer.getInt(layout.valueOffsets + id * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(layout.valueData + start);
+            view.get(bytes);
+            // 并发解码同一个值只是重复劳动，String不可变，无需同步
+            value = new String(bytes, StandardCharsets.UTF_8);
+            values[id] = value;
+        }
+        return value;
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int c = Long.compareUnsigned(high1, high2);
+        return c != 0 ? c : Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * 各区块在文件中的偏移
+     */
+    private static final class Layout {
+        final int ipv4Index;
+        final int ipv4Start;
+        final int ipv4End;
+        final int ipv4Value;
+        final int ipv6StartHigh;
+        final int ipv6StartLow;
+        final int ipv6EndHigh;
+        final int ipv6EndLow;
+        final int ipv6Value;
+        final int valueOffsets;
+        final int valueData;
+
+        Layout(int ipv4Count, int ipv6Count, int valueCount) throws IOException {
+            long p = HEADER_BYTES;
+            ipv4Index = checked(p);
+            p += INDEX_SLOTS * 4L;
+            ipv4Start = checked(p);
+            p += ipv4Count * 4L;
+            ipv4End = checked(p);
+            p += ipv4Count * 4L;
+            ipv4Value = checked(p);
+            p += ipv4Count * 4L;
+            p = (p + 7) & ~7L;
+            ipv6StartHigh = checked(p);
+            p += ipv6Count * 8L;
+            ipv6StartLow = checked(p);
+            p += ipv6Count * 8L;
+            ipv6EndHigh = checked(p);
+            p += ipv6Count * 8L;
+            ipv6EndLow = checked(p);
+            p += ipv6Count * 8L;
+            ipv6Value = checked(p);
+            p += ipv6Count * 4L;
+            valueOffsets = checked(p);
+            p += (valueCount + 1) * 4L;
+            valueData = checked(p);
+        }
+
+        private static int checked(long offset) throws IOException {
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("IP地址段数据库超过2GB");
+            }
+            return (int) offset;
+        }
+    }
+
+    /**
+     * 数据库构建器
+     * <p>
+     * 地址段不能重叠，相邻且值相同的地址段在写出时合并。构建在离线阶段进行，
+     * 每个地址段占用一个对象，写出后即可丢弃。
+     */
+    public static final class Builder {
+        private final List<Range> ranges = new ArrayList<>();
+        private final Map<String, Integer> valueIds = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * 添加起止地址表示的地址段
+         *
+         * @param startIp 起始地址（包含）
+         * @param endIp   结束地址（包含）
+         * @param value   值
+         * @return this
+         * @throws IllegalArgumentException 地址格式错误、起止地址族不同或起始地址大于结束地址
+         */
+        public Builder add(String startIp, String endIp, String value) {
+            long[] address = new long[2];
+            if (IpParser.parse(startIp, 0, startIp.length(), address) == IpParser.FAMILY_NONE) {
+                throw new IllegalArgumentException("地址格式错误: " + startIp);
+            }
+            long startHigh = address[0];
+            long startLow = address[1];
+            if (IpParser.parse(endIp, 0, endIp.length(), address) == IpParser.FAMILY_NONE) {
+                throw new IllegalArgumentException("地址格式错误: " + endIp);
+            }
+            return add(startHigh, startLow, address[0], address[1], value);
+        }
+
+        /**
+         * 添加CIDR表示的地址段
+         *
+         * @param cidr  地址段，如{@code 10.0.0.0/8}
+         * @param value 值
+         * @return this
+         * @throws IllegalArgumentException 地址段格式错误
+         */
+        public Builder add(String cidr, String value) {
+            long[] out = new long[3];
+            IpRangeSet.parseCidr(cidr, out);
+            int length = (int) out[2];
+            long high = IpRangeSet.maskHigh(out[0], length);
+            long low = IpRangeSet.maskLow(out[1], length);
+            return add(high, low, high | ~IpRangeSet.maskHigh(-1L, length), low | ~IpRangeSet.maskLow(-1L, length),
+                    value);
+        }
+
+        /**
+         * 添加128位起止地址表示的地址段，IPv4以IPv4映射地址表示
+         *
+         * @return this
+         * @throws IllegalArgumentException 起止地址族不同或起始地址大于结束地址
+         */
+        public Builder add(long startHigh, long startLow, long endHigh, long endLow, String value) {
+            if (IpParser.isIpv4Mapped(startHigh, startLow) != IpParser.isIpv4Mapped(endHigh, endLow)) {
+                throw new IllegalArgumentException("地址段的起止地址不属于同一地址族");
+            }
+            if (compare(startHigh, startLow, endHigh, endLow) > 0) {
+                throw new IllegalArgumentException("地址段的起始地址大于结束地址");
+            }
+            Integer id = valueIds.get(value);
+            if (id == null) {
+                id = values.size();
+                valueIds.put(value, id);
+                values.add(value);
+            }
+            ranges.add(new Range(startHigh, startLow, endHigh, endLow, id));
+            return this;
+        }
+
+        public int size() {
+            return ranges.size();
+        }
+
+        /**
+         * 写出到文件，先写临时文件再原子替换，已映射旧文件的进程不受影响
+         *
+         * @param file 目标文件
+         * @throws IOException              写出失败
+         * @throws IllegalArgumentException 地址段重叠
+         */
+        public void writeTo(Path file) throws IOException {
+            Path absolute = file.toAbsolutePath();
+            Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    writeTo(out);
+                }
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * 写出到输出流，不关闭流
+         *
+         * @param out 输出流
+         * @throws IOException              写出失败
+         * @throws IllegalArgumentException 地址段重叠
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            // IPv4在前，各自按起始地址排序
+            ranges.sort((a, b) -> a.isIpv4() != b.isIpv4() ? (a.isIpv4() ? -1 : 1)
+                    : compare(a.startHigh, a.startLow, b.startHigh, b.startLow));
+            List<Range> merged = merge(ranges);
+            int ipv4Count = 0;
+            while (ipv4Count < merged.size() && merged.get(ipv4Count).isIpv4()) {
+                ipv4Count++;
+            }
+            List<Range> ipv4 = merged.subList(0, ipv4Count);
+            List<Range> ipv6 = merged.subList(ipv4Count, merged.size());
+            byte[][] encoded = new byte[values.size()][];
+            int dataBytes = 0;
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+                dataBytes += encoded[i].length;
+            }
+            Layout layout = new Layout(ipv4.size(), ipv6.size(), encoded.length);
+            if ((long) layout.valueData + dataBytes > Integer.MAX_VALUE) {
+                throw new IOException("IP地址段数据库超过2GB");
+            }
+
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(ipv4.size());
+            data.writeInt(ipv6.size());
+            data.writeInt(encoded.length);
+            data.writeInt(dataBytes);
+            // 索引表第p项为起始地址小于p << 16的地址段数量
+            int next = 0;
+            for (int p = 0; p < INDEX_SLOTS; p++) {
+                while (next < ipv4.size() && (ipv4.get(next).startLow >>> 16 & 0xffffL) < p) {
+                    next++;
+                }
+                data.writeInt(next);
+            }
+            for (Range r : ipv4) {
+                data.writeInt((int) r.startLow);
+            }
+            for (Range r : ipv4) {
+                data.writeInt((int) r.endLow);
+            }
+            for (Range r : ipv4) {
+                data.writeInt(r.valueId);
+            }
+            for (int i = data.size(); i < layout.ipv6StartHigh; i++) {
+                data.writeByte(0);
+            }
+            for (Range r : ipv6) {
+                data.writeLong(r.startHigh);
+            }
+            for (Range r : ipv6) {
+                data.writeLong(r.startLow);
+            }
+            for (Range r : ipv6) {
+                data.writeLong(r.endHigh);
+            }
+            for (Range r : ipv6) {
+                data.writeLong(r.endLow);
+            }
+            for (Range r : ipv6) {
+                data.writeInt(r.valueId);
+            }
+            int offset = 0;
+            for (byte[] bytes : encoded) {
+                data.writeInt(offset);
+                offset += bytes.length;
+            }
+            data.writeInt(offset);
+            for (byte[] bytes : encoded) {
+                data.write(bytes);
+            }
+            data.flush();
+        }
+
+        /**
+         * 检查重叠并合并相邻的同值地址段，ranges已按地址族与起始地址排序
+         */
+        private static List<Range> merge(List<Range> ranges) {
+            List<Range> merged = new ArrayList<>(ranges.size());
+            Range last = null;
+            for (Range r : ranges) {
+                if (last != null && last.isIpv4() == r.isIpv4()) {
+                    if (compare(last.endHigh, last.endLow, r.startHigh, r.startLow) >= 0) {
+                        throw new IllegalArgumentException("地址段重叠: " + last + " 与 " + r);
+                    }
+                    if (last.valueId == r.valueId
+                            && isSuccessor(last.endHigh, last.endLow, r.startHigh, r.startLow)) {
+                        last = new Range(last.startHigh, last.startLow, r.endHigh, r.endLow, r.valueId);
+                        merged.set(merged.size() - 1, last);
+                        continue;
+                    }
+                }
+                merged.add(r);
+                last = r;
+            }
+            return merged;
+        }
+
+        private static boolean isSuccessor(long high, long low, long nextHigh, long nextLow) {
+            long low1 = low + 1;
+            long high1 = low1 == 0 ? high + 1 : high;
+            return high1 == nextHigh && low1 == nextLow;
+        }
+    }
+
+    private static final class Range {
+        final long startHigh;
+        final long startLow;
+        final long endHigh;
+        final long endLow;
+        final int valueId;
+
+        Range(long startHigh, long startLow, long endHigh, long endLow, int valueId) {
+            this.startHigh = startHigh;
+            this.startLow = startLow;
+            this.endHigh = endHigh;
+            this.endLow = endLow;
+            this.valueId = valueId;
+        }
+
+        boolean isIpv4() {
+            return IpParser.isIpv4Mapped(startHigh, startLow);
+        }
+
+        @Override
+        public String toString() {
+            if (isIpv4()) {
+                return IpParser.formatIpv4((int) startLow) + "-" + IpParser.formatIpv4((int) endLow);
+            }
+            return String.format("%016x%016x-%016x%016x", startHigh, startLow, endHigh, endLow);
+        }
+    }
+}
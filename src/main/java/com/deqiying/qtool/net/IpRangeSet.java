@@ -0,0 +1,416 @@
+package com.deqiying.qtool.net;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IP地址段（CIDR）集合
+ * <p>
+ * IPv4与IPv6统一按128位地址处理（IPv4映射为{@code ::ffff:a.b.c.d}，前缀长度加96），
+ * 编译为路径压缩的二进制字典树（PATRICIA），节点以数组存储。查询为最长前缀匹配，
+ * 沿树下降时每个节点做一次前缀比较，耗时只与树高有关，与地址段数量无关；大量IPv4地址段共享同一个映射前缀节点。
+ * <p>
+ * 地址段支持{@code 10.0.0.0/8}、{@code 2001:db8::/32}与单个IP（视为/32或/128）。
+ * {@link #rebuild(Map)}先完整编译新的树再原子替换，查询无锁，替换期间不受影响。
+ *
+ * @param <V> 地址段关联的值类型
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public class IpRangeSet<V> {
+
+    private volatile Trie trie;
+
+    /**
+     * @param ranges 地址段到关联值的映射
+     * @throws IllegalArgumentException 地址段格式错误
+     */
+    public IpRangeSet(Map<String, V> ranges) {
+        this.trie = Trie.build(ranges);
+    }
+
+    /**
+     * 以地址段本身作为关联值创建集合
+     *
+     * @param ranges 地址段集合
+     * @return 地址段集合
+     * @throws IllegalArgumentException 地址段格式错误
+     */
+    public static IpRangeSet<String> of(Collection<String> ranges) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String range : ranges) {
+            map.put(range, range);
+        }
+        return new IpRangeSet<>(map);
+    }
+
+    /**
+     * 使用新的地址段重建，编译完成后原子替换
+     *
+     * @param ranges 地址段到关联值的映射
+     * @throws IllegalArgumentException 地址段格式错误，此时原有内容不变
+     */
+    public void rebuild(Map<String, V> ranges) {
+        this.trie = Trie.build(ranges);
+    }
+
+    /**
+     * 地址段数量（相同地址段只计一次）
+     */
+    public int size() {
+        return trie.values.length;
+    }
+
+    /**
+     * 查找IP所在的最长匹配地址段的关联值
+     *
+     * @param ip IP地址
+     * @return 关联值，未命中或不是合法IP时返回null
+     */
+    public V lookup(CharSequence ip) {
+        return ip == null ? null : lookup(ip, 0, ip.length());
+    }
+
+    /**
+     * 查找文本指定区间中的IP所在的最长匹配地址段的关联值，不分配对象
+     *
+     * @param ip   文本
+     * @param from 起始下标（包含）
+     * @param to   结束下标（不包含）
+     * @return 关联值，未命中或不是合法IP时返回null
+     */
+    public V lookup(CharSequence ip, int from, int to) {
+        long v4 = IpParser.parseIpv4(ip, from, to);
+        if (v4 >= 0) {
+            return lookupIpv4((int) v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, from, to, scratch) ? lookup(scratch[0], scratch[1]) : null;
+    }
+
+    /**
+     * 查找IPv4地址所在的最长匹配地址段的关联值
+     *
+     * @param address 32位地址
+     * @return 关联值，未命中时返回null
+     */
+    public V lookupIpv4(int address) {
+        return lookup(0, IpParser.IPV4_MAPPED_PREFIX | (address & 0xffffffffL));
+    }
+
+    /**
+     * 查找128位地址所在的最长匹配地址段的关联值
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 关联值，未命中时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(long high, long low) {
+        Trie current = trie;
+        int index = current.find(high, low);
+        return index < 0 ? null : (V) current.values[index];
+    }
+
+    /**
+     * 判断IP是否落在任意地址段内
+     *
+     * @param ip IP地址
+     * @return 是否命中，不是合法IP时返回false
+     */
+    public boolean contains(CharSequence ip) {
+        if (ip == null) {
+            return false;
+        }
+        long v4 = IpParser.parseIpv4(ip, 0, ip.length());
+        if (v4 >= 0) {
+            return contains(0, IpParser.IPV4_MAPPED_PREFIX | v4);
+        }
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(ip, 0, ip.length(), scratch) && contains(scratch[0], scratch[1]);
+    }
+
+    /**
+     * 判断128位地址是否落在任意地址段内
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 是否命中
+     */
+    public boolean contains(long high, long low) {
+        return trie.find(high, low) >= 0;
+    }
+
+    /**
+     * 解析地址段，写入{高64位, 低64位, 前缀长度}，IPv4转换为映射地址
+     *
+     * @throws IllegalArgumentException 格式错误
+     */
+    static void parseCidr(String cidr, long[] out) {
+        int slash = cidr.indexOf('/');
+        int end = slash < 0 ? cidr.length() : slash;
+        int family = IpParser.parse(cidr, 0, end, out);
+        if (family == IpParser.FAMILY_NONE) {
+            throw new IllegalArgumentException("地址段格式错误: " + cidr);
+        }
+        int max = family == IpParser.FAMILY_IPV4 ? 32 : 128;
+        int length = max;
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(cidr.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+            if (length < 0 || length > max) {
+                throw new IllegalArgumentException("地址段前缀长度错误: " + cidr);
+            }
+        }
+        if (family == IpParser.FAMILY_IPV4) {
+            length += 96;
+        }
+        out[2] = length;
+    }
+
+    /**
+     * 128位值按前缀长度截断后的高64位
+     */
+    static long maskHigh(long high, int length) {
+        return length == 0 ? 0 : length >= 64 ? high : high & (-1L << (64 - length));
+    }
+
+    /**
+     * 128位值按前缀长度截断后的低64位
+     */
+    static long maskLow(long low, int length) {
+        return length <= 64 ? 0 : low & (-1L << (128 - length));
+    }
+
+    /**
+     * 第index位（从最高位开始，0-127）
+     */
+    static int bitAt(long high, long low, int index) {
+        return index < 64 ? (int) (high >>> (63 - index)) & 1 : (int) (low >>> (127 - index)) & 1;
+    }
+
+    /**
+     * 两个128位值的公共前缀长度，不超过limit
+     */
+    static int commonPrefix(long high1, long low1, long high2, long low2, int limit) {
+        long x = high1 ^ high2;
+        int common = x != 0 ? Long.numberOfLeadingZeros(x) : 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+        return Math.min(common, limit);
+    }
+
+    /**
+     * 编译后的PATRICIA树
+     * <p>
+     * 每个节点占nodes中连续的4个long，一次查询访问的节点数据位于同一缓存行附近：
+     * {前缀高64位, 前缀低64位（均已截断）, 前缀长度 | 值下标 << 8, 子节点0 << 32 | 子节点1}。
+     * 值下标为-1表示中间节点，子节点为-1表示没有；根节点为0。
+     */
+    static final class Trie {
+        private static final int STRIDE = 4;
+
+        /**
+         * IPv4直接索引覆盖的前缀长度：映射前缀加IPv4的前16位
+         */
+        private static final int IPV4_SLOT_LENGTH = 96 + 16;
+
+        final long[] nodes;
+        final Object[] values;
+        // IPv4查询跳过树的上层：按前16位直接得到继续下降的节点与已匹配的地址段
+        private final int[] ipv4Start;
+        private final int[] ipv4Best;
+
+        private Trie(long[] nodes, Object[] values) {
+            this.nodes = nodes;
+            this.values = values;
+            this.ipv4Start = new int[1 << 16];
+            this.ipv4Best = new int[1 << 16];
+            for (int slot = 0; slot < ipv4Start.length; slot++) {
+                long low = IpParser.IPV4_MAPPED_PREFIX | ((long) slot << 16);
+                int best = -1;
+                int node = 0;
+                while (node >= 0) {
+                    int base = node * STRIDE;
+                    long meta = nodes[base + 2];
+                    int length = (int) meta & 0xff;
+                    if (length >= IPV4_SLOT_LENGTH) {
+                        // 下一位已超出前16位，该节点留到查询时比较
+                        break;
+                    }
+                    if (nodes[base] != 0 || maskLow(low, length) != nodes[base + 1]) {
+                        node = -1;
+                        break;
+                    }
+                    int valueId = (int) (meta >> 8);
+                    if (valueId >= 0) {
+                        best = valueId;
+                    }
+                    long children = nodes[base + 3];
+                    node = bitAt(0, low, length) == 0 ? (int) (children >> 32) : (int) children;
+                }
+                ipv4Start[slot] = node;
+                ipv4Best[slot] = best;
+            }
+        }
+
+        static Trie build(Map<String, ?> ranges) {
+            Node root = new Node(0, 0, 0);
+            int count = 0;
+            long[] parsed = new long[3];
+            for (Map.Entry<String, ?> entry : ranges.entrySet()) {
+                parseCidr(entry.getKey().trim(), parsed);
+                if (root.insert((int) parsed[2], parsed[0], parsed[1], entry.getValue(), count)) {
+                    count++;
+                }
+            }
+            return flatten(root, count);
+        }
+
+        /**
+         * 最长前缀匹配，返回values下标，未命中时返回-1
+         */
+        int find(long high, long low) {
+            if (IpParser.isIpv4Mapped(high, low)) {
+                int slot = (int) (low >>> 16) & 0xffff;
+                return find(high, low, ipv4Start[slot], ipv4Best[slot]);
+            }
+            return find(high, low, 0, -1);
+        }
+
+        /**
+         * 从node开始下降，best为此前已匹配的最长地址段
+         */
+        private int find(long high, long low, int node, int best) {
+            long[] nodes = this.nodes;
+            while (node >= 0) {
+                int base = node * STRIDE;
+                long meta = nodes[base + 2];
+                int length = (int) meta & 0xff;
+                if (maskHigh(high, length) != nodes[base] || maskLow(low, length) != nodes[base + 1]) {
+                    break;
+                }
+                int valueId = (int) (meta >> 8);
+                if (valueId >= 0) {
+                    best = valueId;
+                }
+                if (length == 128) {
+                    break;
+                }
+                long children = nodes[base + 3];
+                node = bitAt(high, low, length) == 0 ? (int) (children >> 32) : (int) children;
+            }
+            return best;
+        }
+
+        /**
+         * 按先序遍历编号，写入数组
+         */
+        private static Trie flatten(Node root, int valueCount) {
+            int nodeCount = 0;
+            ArrayDeque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                node.id = nodeCount++;
+                for (int bit = 1; bit >= 0; bit--) {
+                    if (node.children[bit] != null) {
+                        stack.push(node.children[bit]);
+                    }
+                }
+            }
+            long[] nodes = new long[nodeCount * STRIDE];
+            Object[] values = new Object[valueCount];
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                int base = node.id * STRIDE;
+                nodes[base] = node.high;
+                nodes[base + 1] = node.low;
+                nodes[base + 2] = node.length | ((long) node.valueId << 8);
+                Node zero = node.children[0];
+                Node one = node.children[1];
+                nodes[base + 3] = ((long) (zero == null ? -1 : zero.id) << 32) | ((one == null ? -1 : one.id) & 0xffffffffL);
+                if (node.valueId >= 0) {
+                    values[node.valueId] = node.value;
+                }
+                for (int bit = 1; bit >= 0; bit--) {
+                    if (node.children[bit] != null) {
+                        stack.push(node.children[bit]);
+                    }
+                }
+            }
+            return new Trie(nodes, values);
+        }
+    }
+
+    /**
+     * 构建期间使用的树节点
+     */
+    private static final class Node {
+        final int length;
+        final long high;
+        final long low;
+        final Node[] children = new Node[2];
+        Object value;
+        int valueId = -1;
+        int id;
+
+        Node(int length, long high, long low) {
+            this.length = length;
+            this.high = maskHigh(high, length);
+            this.low = maskLow(low, length);
+        }
+
+        /**
+         * 插入地址段，已存在时覆盖关联值
+         *
+         * @return 是否新增了地址段
+         */
+        boolean insert(int length, long high, long low, Object value, int nextId) {
+            Node node = this;
+            while (true) {
+                // 此时node的前缀与地址段在node.length位内一致，且node.length <= length
+                if (node.length == length) {
+                    boolean added = node.valueId < 0;
+                    if (added) {
+                        node.valueId = nextId;
+                    }
+                    node.value = value;
+                    return added;
+                }
+                int bit = bitAt(high, low, node.length);
+                Node child = node.children[bit];
+                if (child == null) {
+                    Node leaf = new Node(length, high, low);
+                    leaf.value = value;
+                    leaf.valueId = nextId;
+                    node.children[bit] = leaf;
+                    return true;
+                }
+                int common = commonPrefix(high, low, child.high, child.low, Math.min(length, child.length));
+                if (common == child.length) {
+                    node = child;
+                    continue;
+                }
+                // 在公共前缀处分裂
+                Node middle = new Node(common, high, low);
+                middle.children[bitAt(child.high, child.low, common)] = child;
+                node.children[bit] = middle;
+                if (common == length) {
+                    middle.value = value;
+                    middle.valueId = nextId;
+                } else {
+                    Node leaf = new Node(length, high, low);
+                    leaf.value = value;
+                    leaf.valueId = nextId;
+                    middle.children[bitAt(high, low, common)] = leaf;
+                }
+                return true;
+            }
+        }
+    }
+}
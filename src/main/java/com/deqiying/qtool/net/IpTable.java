@@ -0,0 +1,373 @@
+package com.deqiying.qtool.net;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 以IP为键的开放寻址哈希表，供{@link IpHashSet}与{@link IpCounterMap}使用
+ * <p>
+ * 键为32位IPv4或128位IPv6（由构造参数决定，一张表只存一种），可选附带一个long值。
+ * 全部条目连续存放在一个{@link ByteBuffer}中（堆内或直接内存），每条为键加值的定长字节，
+ * 线性探测，删除时后移补位不留墓碑。全零键（0.0.0.0、::）与空槽无法区分，单独存放。
+ * <p>
+ * 非线程安全。
+ *
+ * @author deqiying
+ */
+final class IpTable {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * 遍历条目，IPv4键以IPv4映射地址给出
+     */
+    interface Visitor {
+        void accept(long high, long low, long value);
+    }
+
+    private final boolean ipv6;
+    private final int valueBytes;
+    private final int entryBytes;
+    private final boolean direct;
+    private final int maxCapacity;
+
+    private ByteBuffer buffer;
+    private int mask;
+    private int threshold;
+    private int size;
+    private boolean hasZero;
+    private long zeroValue;
+
+    /**
+     * @param ipv6         是否以128位地址为键，否则为32位IPv4
+     * @param withValue    是否附带long值
+     * @param expectedSize 预计条目数
+     * @param direct       是否使用直接内存
+     */
+    IpTable(boolean ipv6, boolean withValue, int expectedSize, boolean direct) {
+        this.ipv6 = ipv6;
+        this.valueBytes = withValue ? 8 : 0;
+        this.entryBytes = (ipv6 ? 16 : 4) + valueBytes;
+        this.direct = direct;
+        // 条目总字节数不能超过单个ByteBuffer的上限
+        this.maxCapacity = Integer.highestOneBit(Integer.MAX_VALUE / entryBytes);
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return hasZero ? size + 1 : size;
+    }
+
+    /**
+     * 当前占用的字节数
+     */
+    long bytes() {
+        return buffer.capacity();
+    }
+
+    // ---------------------------------------------------------------- IPv4
+
+    boolean contains(int key) {
+        return key == 0 ? hasZero : slot(key) >= 0;
+    }
+
+    long get(int key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int slot = slot(key);
+        return slot < 0 ? 0 : buffer.getLong(slot * entryBytes + 4);
+    }
+
+    boolean insert(int key) {
+        if (key == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            return true;
+        }
+        int slot = slot(key);
+        if (slot >= 0) {
+            return false;
+        }
+        put(-slot - 1, key);
+        return true;
+    }
+
+    long add(int key, long delta) {
+        if (key == 0) {
+            hasZero = true;
+            return zeroValue += delta;
+        }
+        int slot = slot(key);
+        if (slot < 0) {
+            slot = put(-slot - 1, key);
+        }
+        int offset = slot * entryBytes + 4;
+        long value = buffer.getLong(offset) + delta;
+        buffer.putLong(offset, value);
+        return value;
+    }
+
+    boolean remove(int key) {
+        if (key == 0) {
+            boolean had = hasZero;
+            hasZero = false;
+            zeroValue = 0;
+            return had;
+        }
+        int slot = slot(key);
+        if (slot < 0) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * @return 键所在槽位，不存在时为{@code -(插入位置 + 1)}
+     */
+    private int slot(int key) {
+        int i = hash(key) & mask;
+        while (true) {
+            int k = buffer.getInt(i * entryBytes);
+            if (k == key) {
+                return i;
+            }
+            if (k == 0) {
+                return -i - 1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int put(int slot, int key) {
+        if (size >= threshold) {
+            grow();
+            slot = -slot(key) - 1;
+        }
+        buffer.putInt(slot * entryBytes, key);
+        size++;
+        return slot;
+    }
+
+    // ---------------------------------------------------------------- IPv6
+
+    boolean contains(long high, long low) {
+        return (high | low) == 0 ? hasZero : slot(high, low) >= 0;
+    }
+
+    long get(long high, long low) {
+        if ((high | low) == 0) {
+            return zeroValue;
+        }
+        int slot = slot(high, low);
+        return slot < 0 ? 0 : buffer.getLong(slot * entryBytes + 16);
+    }
+
+    boolean insert(long high, long low) {
+        if ((high | low) == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            return true;
+        }
+        int slot = slot(high, low);
+        if (slot >= 0) {
+            return false;
+        }
+        put(-slot - 1, high, low);
+        return true;
+    }
+
+    long add(long high, long low, long delta) {
+        if ((high | low) == 0) {
+            hasZero = true;
+            return zeroValue += delta;
+        }
+        int slot = slot(high, low);
+        if (slot < 0) {
+            slot = put(-slot - 1, high, low);
+        }
+        int offset = slot * entryBytes + 16;
+        long value = buffer.getLong(offset) + delta;
+        buffer.putLong(offset, value);
+        return value;
+    }
+
+    boolean remove(long high, long low) {
+        if ((high | low) == 0) {
+            boolean had = hasZero;
+            hasZero = false;
+            zeroValue = 0;
+            return had;
+        }
+        int slot = slot(high, low);
+        if (slot < 0) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    private int slot(long high, long low) {
+        int i = hash(high, low) & mask;
+        while (true) {
+            int offset = i * entryBytes;
+            long h = buffer.getLong(offset);
+            long l = buffer.getLong(offset + 8);
+            if (h == high && l == low) {
+                return i;
+            }
+            if ((h | l) == 0) {
+                return -i - 1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private int put(int slot, long high, long low) {
+        if (size >= threshold) {
+            grow();
+            slot = -slot(high, low) - 1;
+        }
+        int offset = slot * entryBytes;
+        buffer.putLong(offset, high);
+        buffer.putLong(offset + 8, low);
+        size++;
+        return slot;
+    }
+
+    // ---------------------------------------------------------------- 公共
+
+    void forEach(Visitor visitor) {
+        if (hasZero) {
+            visitor.accept(0, ipv6 ? 0 : IpParser.IPV4_MAPPED_PREFIX, zeroValue);
+        }
+        int capacity = mask + 1;
+        for (int i = 0; i < capacity; i++) {
+            if (isEmpty(i)) {
+                continue;
+            }
+            int offset = i * entryBytes;
+            long value = valueBytes == 0 ? 0 : buffer.getLong(offset + entryBytes - 8);
+            if (ipv6) {
+                visitor.accept(buffer.getLong(offset), buffer.getLong(offset + 8), value);
+            } else {
+                visitor.accept(0, IpParser.IPV4_MAPPED_PREFIX | (buffer.getInt(offset) & 0xffffffffL), value);
+            }
+        }
+    }
+
+    private boolean isEmpty(int slot) {
+        int offset = slot * entryBytes;
+        if (ipv6) {
+            return (buffer.getLong(offset) | buffer.getLong(offset + 8)) == 0;
+        }
+        return buffer.getInt(offset) == 0;
+    }
+
+    private int home(int slot) {
+        int offset = slot * entryBytes;
+        if (ipv6) {
+            return hash(buffer.getLong(offset), buffer.getLong(offset + 8)) & mask;
+        }
+        return hash(buffer.getInt(offset)) & mask;
+    }
+
+    /**
+     * 删除槽位上的条目，并把其后探测链上的条目前移，保证查找时遇到空槽即可停止
+     */
+    private void delete(int slot) {
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (isEmpty(i)) {
+                break;
+            }
+            // 条目的理想位置不在(gap, i]之间时，才能移动到gap
+            int home = home(i);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                copy(i, gap);
+                gap = i;
+            }
+        }
+        int offset = gap * entryBytes;
+        for (int b = 0; b < entryBytes; b += 4) {
+            buffer.putInt(offset + b, 0);
+        }
+        size--;
+    }
+
+    private void copy(int from, int to) {
+        int src = from * entryBytes;
+        int dst = to * entryBytes;
+        for (int b = 0; b < entryBytes; b += 4) {
+            buffer.putInt(dst + b, buffer.getInt(src + b));
+        }
+    }
+
+    private void grow() {
+        int capacity = mask + 1;
+        if (capacity >= maxCapacity) {
+            throw new IllegalStateException("IP表容量已达上限：" + size() + "条");
+        }
+        ByteBuffer old = buffer;
+        allocate(capacity << 1);
+        for (int i = 0; i < capacity; i++) {
+            int offset = i * entryBytes;
+            if (ipv6) {
+                long high = old.getLong(offset);
+                long low = old.getLong(offset + 8);
+                if ((high | low) != 0) {
+                    move(old, offset, hash(high, low));
+                }
+            } else {
+                int key = old.getInt(offset);
+                if (key != 0) {
+                    move(old, offset, hash(key));
+                }
+            }
+        }
+    }
+
+    private void move(ByteBuffer old, int offset, int hash) {
+        int i = hash & mask;
+        while (!isEmpty(i)) {
+            i = (i + 1) & mask;
+        }
+        int dst = i * entryBytes;
+        for (int b = 0; b < entryBytes; b += 4) {
+            buffer.putInt(dst + b, old.getInt(offset + b));
+        }
+    }
+
+    private void allocate(int capacity) {
+        int bytes = capacity * entryBytes;
+        buffer = (direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.nativeOrder());
+        mask = capacity - 1;
+        // 负载因子0.75，容量达到上限后允许填满到7/8
+        threshold = capacity >= maxCapacity ? capacity - (capacity >>> 3) : capacity - (capacity >>> 2);
+    }
+
+    private int capacityFor(int expectedSize) {
+        long wanted = Math.max(MIN_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+        if (wanted >= maxCapacity) {
+            return maxCapacity;
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(long high, long low) {
+        long h = high * 0x9e3779b97f4a7c15L + low;
+        h = (h ^ (h >>> 32)) * 0xd6e8feb86659fd93L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -3,23 +3,38 @@ package com.deqiying.qtool.net;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 
 public class IpUtils {
 
     /**
      * 判断是否为内网IP
+     * <p>
+     * 只解析IP字面量，不做DNS查询，主机名返回false
      *
      * @param address ip地址
      * @return 是否为内网IP
      */
     public static boolean isPrivateIp(String address) {
-        try {
-            InetAddress inetAddress = InetAddress.getByName(address);
-            return isPrivateIp(inetAddress);
-        } catch (UnknownHostException ignored) {
+        return address != null && isPrivateIp(address, 0, address.length());
+    }
+
+    /**
+     * 判断文本指定区间中的IP是否为内网IP
+     * <p>
+     * 只解析IP字面量，不做DNS查询，不分配对象
+     *
+     * @param address 文本
+     * @param from    起始下标（包含）
+     * @param to      结束下标（不包含）
+     * @return 是否为内网IP，不是合法IP时返回false
+     */
+    public static boolean isPrivateIp(CharSequence address, int from, int to) {
+        long v4 = IpParser.parseIpv4(address, from, to);
+        if (v4 >= 0) {
+            return isPrivateIpv4((int) v4);
         }
-        return false;
+        long[] scratch = IpParser.scratch();
+        return IpParser.parseIpv6(address, from, to, scratch) && isPrivateIpv6(scratch[0], scratch[1]);
     }
 
     /**
@@ -47,41 +62,65 @@ public class IpUtils {
      * @return 是否为内网IP
      */
     public static boolean isPrivateIpInet4(Inet4Address inet4Address) {
-        byte[] bytes = inet4Address.getAddress();
+        return isPrivateIpv4(toInt(inet4Address.getAddress(), 0));
+    }
 
-        // 检查IPv4地址范围
+    /**
+     * 判断是否为内网IP
+     *
+     * @param inet6Address Inet6Address对象
+     * @return 是否为内网IP
+     */
+    public static boolean isPrivateIpInet6(Inet6Address inet6Address) {
+        byte[] bytes = inet6Address.getAddress();
+        return isPrivateIpv6(toLong(bytes, 0), toLong(bytes, 8));
+    }
+
+    /**
+     * 判断是否为内网IPv4地址（10/8、172.16/12、192.168/16）
+     *
+     * @param address 32位地址
+     * @return 是否为内网IP
+     */
+    public static boolean isPrivateIpv4(int address) {
         // 判断是否为10.0.0.0 - 10.255.255.255
-        if (bytes[0] == (byte) 10) {
+        if ((address >>> 24) == 10) {
             return true;
         }
         // 判断是否为172.16.0.0 - 172.31.255.255
-        if (bytes[0] == (byte) 172 && (bytes[1] >= 16 && bytes[1] <= 31)) {
+        if ((address >>> 20) == 0xac1) {
             return true;
         }
         // 判断是否为192.168.0.0 - 192.168.255.255
-        if (bytes[0] == (byte) 192 && bytes[1] == (byte) 168) {
-            return true;
-        }
-        return false;
+        return (address >>> 16) == 0xc0a8;
     }
 
     /**
-     * 判断是否为内网IP
+     * 判断是否为内网IPv6地址（fe80::/10、fc00::/7），IPv4映射地址按IPv4判断
      *
-     * @param inet6Address Inet6Address对象
+     * @param high 高64位
+     * @param low  低64位
      * @return 是否为内网IP
      */
-    public static boolean isPrivateIpInet6(Inet6Address inet6Address) {
-        byte[] bytes = inet6Address.getAddress();
+    public static boolean isPrivateIpv6(long high, long low) {
+        if (IpParser.isIpv4Mapped(high, low)) {
+            return isPrivateIpv4((int) low);
+        }
         // 判断是否为链路本地地址 (fe80::/10)
-        if ((bytes[0] == (byte) 0xfe) && (bytes[1] >= (byte) 0x80 && bytes[1] <= (byte) 0xbf)) {
+        if ((high >>> 54) == (0xfe80L >>> 6)) {
             return true;
         }
         // 判断是否为唯一本地地址 (fc00::/7)
-        if (bytes[0] == (byte) 0xfc || bytes[0] == (byte) 0xfd) {
-            return true;
-        }
-        return false;
+        return (high >>> 57) == (0xfc00L >>> 9);
+    }
+
+    static int toInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    static long toLong(byte[] bytes, int offset) {
+        return ((long) toInt(bytes, offset) << 32) | (toInt(bytes, offset + 4) & 0xffffffffL);
     }
 
 }
@@ -0,0 +1,426 @@
+package com.deqiying.qtool.string;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick多关键词匹配
+ * <p>
+ * 由关键词集合一次性构建自动机，之后对任意文本只扫描一遍即可找出全部关键词，
+ * 耗时与关键词数量无关。自动机全部存放在数组中（每个状态的出边按字符排序连续存放），
+ * 构建后不可变，可在多线程间共享。
+ * <p>
+ * 忽略大小写时关键词与文本都按{@link Character#toLowerCase(char)}逐字符转换（与
+ * {@link StringUtils#equalsIgnoreCase(CharSequence, CharSequence)}一致），不改变长度，返回的位置即原文中的位置。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * AhoCorasick words = AhoCorasick.of(sensitiveWords, true);
+ * if (words.containsAny(comment)) {
+ *     comment = words.replaceAll(comment, "***");
+ * }
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class AhoCorasick {
+    private static final int ROOT = 0;
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    /**
+     * 回调方式访问匹配结果
+     */
+    @FunctionalInterface
+    public interface MatchConsumer {
+        /**
+         * @param start   匹配起始下标（包含）
+         * @param end     匹配结束下标（不包含）
+         * @param keyword 关键词序号，见{@link #keyword(int)}
+         * @return 是否继续
+         */
+        boolean accept(int start, int end, int keyword);
+    }
+
+    /**
+     * 根据匹配到的关键词决定替换内容
+     */
+    @FunctionalInterface
+    public interface Replacer {
+        /**
+         * @param text    原文
+         * @param start   匹配起始下标（包含）
+         * @param end     匹配结束下标（不包含）
+         * @param keyword 关键词序号
+         * @return 替换内容，null表示保留原文
+         */
+        CharSequence replace(CharSequence text, int start, int end, int keyword);
+    }
+
+    private final String[] keywords;
+    private final boolean ignoreCase;
+    private final int maxLength;
+
+    // 状态s的出边为edgeLabel/edgeTarget的[edgeStart[s], edgeStart[s + 1])，按字符升序
+    private final int[] edgeStart;
+    private final char[] edgeLabel;
+    private final int[] edgeTarget;
+    // 根节点ASCII出边的直接索引，-1表示没有
+    private final int[] rootAscii;
+    private final int[] fail;
+    // 在该状态结束的关键词序号，-1表示没有
+    private final int[] output;
+    // 沿失败链最近的有输出的状态，ROOT表示没有
+    private final int[] dictLink;
+
+    private AhoCorasick(Collection<String> keywords, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        // 去重（忽略大小写时按转换后的内容），保留首次出现的原文
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (String keyword : keywords) {
+            if (keyword != null && !keyword.isEmpty()) {
+                unique.putIfAbsent(fold(keyword), keyword);
+            }
+        }
+        this.keywords = unique.values().toArray(new String[0]);
+
+        // 构建字典树：子节点按(父节点 << 16 | 字符)索引
+        Map<Long, Integer> children = new HashMap<>();
+        int[] parent = new int[16];
+        char[] label = new char[16];
+        List<Integer> terminal = new ArrayList<>();
+        int states = 1;
+        int longest = 0;
+        int index = 0;
+        for (String folded : unique.keySet()) {
+            int state = ROOT;
+            for (int i = 0; i < folded.length(); i++) {
+                char c = folded.charAt(i);
+                long key = (long) state << 16 | c;
+                Integer child = children.get(key);
+                if (child == null) {
+                    if (states == parent.length) {
+                        parent = Arrays.copyOf(parent, states * 2);
+                        label = Arrays.copyOf(label, states * 2);
+                    }
+                    parent[states] = state;
+                    label[states] = c;
+                    child = states++;
+                    children.put(key, child);
+                }
+                state = child;
+            }
+            while (terminal.size() <= state) {
+                terminal.add(-1);
+            }
+            terminal.set(state, index++);
+            longest = Math.max(longest, folded.length());
+        }
+        this.maxLength = longest;
+
+        // 出边按(父节点, 字符)排序后连续存放
+        long[] edges = new long[states - 1];
+        for (int s = 1; s < states; s++) {
+            edges[s - 1] = (long) parent[s] << 16 | label[s];
+        }
+        Arrays.sort(edges);
+        edgeStart = new int[states + 1];
+        edgeLabel = new char[edges.length];
+        edgeTarget = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            edgeStart[(int) (edges[i] >>> 16) + 1]++;
+            edgeLabel[i] = (char) edges[i];
+            edgeTarget[i] = children.get(edges[i]);
+        }
+        for (int s = 0; s < states; s++) {
+            edgeStart[s + 1] += edgeStart[s];
+        }
+        rootAscii = new int[128];
+        Arrays.fill(rootAscii, -1);
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1] && edgeLabel[i] < 128; i++) {
+            rootAscii[edgeLabel[i]] = edgeTarget[i];
+        }
+
+        output = new int[states];
+        Arrays.fill(output, -1);
+        for (int s = 0; s < terminal.size(); s++) {
+            output[s] = terminal.get(s);
+        }
+
+        // 按层次计算失败链与输出链
+        fail = new int[states];
+        dictLink = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+            queue.add(edgeTarget[i]);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = edgeStart[state]; i < edgeStart[state + 1]; i++) {
+                int child = edgeTarget[i];
+                char c = edgeLabel[i];
+                int f = fail[state];
+                int next;
+                while ((next = transition(f, c)) < 0 && f != ROOT) {
+                    f = fail[f];
+                }
+                f = next < 0 ? ROOT : next;
+                fail[child] = f;
+                dictLink[child] = output[f] >= 0 ? f : dictLink[f];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 区分大小写构建
+     *
+     * @param keywords 关键词，null与空串被忽略，重复的只保留一个
+     * @return 匹配器
+     */
+    public static AhoCorasick of(Collection<String> keywords) {
+        return new AhoCorasick(keywords, false);
+    }
+
+    /**
+     * 构建
+     *
+     * @param keywords   关键词，null与空串被忽略，重复的只保留一个
+     * @param ignoreCase 是否忽略大小写
+     * @return 匹配器
+     */
+    public static AhoCorasick of(Collection<String> keywords, boolean ignoreCase) {
+        return new AhoCorasick(keywords, ignoreCase);
+    }
+
+    /**
+     * 去重后的关键词数量
+     */
+    public int size() {
+        return keywords.length;
+    }
+
+    /**
+     * 按序号取关键词（首次出现时的原文）
+     */
+    public String keyword(int index) {
+        return keywords[index];
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * 文本中是否包含任一关键词，找到第一个即返回
+     */
+    public boolean containsAny(CharSequence text) {
+        if (text == null) return false;
+        int state = ROOT;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = next(state, fold(text.charAt(i)));
+            if (output[state] >= 0 || dictLink[state] != ROOT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按结束位置顺序回调全部匹配，包括相互重叠的；同一结束位置先回调较长的关键词
+     *
+     * @param text     文本
+     * @param consumer 回调，返回false时停止
+     */
+    public void find(CharSequence text, MatchConsumer consumer) {
+        if (text == null) return;
+        int state = ROOT;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = next(state, fold(text.charAt(i)));
+            int end = i + 1;
+            for (int s = output[state] >= 0 ? state : dictLink[state]; s != ROOT; s = dictLink[s]) {
+                int keyword = output[s];
+                if (!consumer.accept(end - keywords[keyword].length(), end, keyword)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 查找全部匹配，包括相互重叠的
+     *
+     * @param text 文本
+     * @return 按结束位置排序的匹配
+     */
+    public List<Match> findAll(CharSequence text) {
+        List<Match> result = new ArrayList<>();
+        find(text, (start, end, keyword) -> result.add(new Match(start, end, keyword, keywords[keyword])));
+        return result;
+    }
+
+    /**
+     * 将关键词替换为同一内容
+     *
+     * @see #replaceAll(CharSequence, Replacer)
+     */
+    public String replaceAll(CharSequence text, CharSequence replacement) {
+        return replaceAll(text, (t, start, end, keyword) -> replacement);
+    }
+
+    /**
+     * 单遍扫描替换关键词
+     * <p>
+     * 重叠时取最左边的匹配，起点相同取最长的，被替换的区间不再参与匹配。
+     * 扫描过程中只保留最长关键词长度的窗口，不额外保存全部匹配。
+     *
+     * @param text     文本
+     * @param replacer 替换内容
+     * @return 替换后的文本，text为null时返回null
+     */
+    public String replaceAll(CharSequence text, Replacer replacer) {
+        if (text == null) return null;
+        int n = text.length();
+        if (maxLength == 0) return text.toString();
+        // best[p % maxLength]为起点p上最长匹配的长度
+        int[] best = new int[maxLength];
+        int[] bestKeyword = new int[maxLength];
+        StringBuilder sb = null;
+        int copied = 0;
+        int position = 0;
+        int state = ROOT;
+        for (int i = 0; i < n + maxLength - 1; i++) {
+            if (i < n) {
+                state = next(state, fold(text.charAt(i)));
+                int end = i + 1;
+                for (int s = output[state] >= 0 ? state : dictLink[state]; s != ROOT; s = dictLink[s]) {
+                    int keyword = output[s];
+                    int length = keywords[keyword].length();
+                    int slot = (end - length) % maxLength;
+                    if (length > best[slot]) {
+                        best[slot] = length;
+                        bestKeyword[slot] = keyword;
+                    }
+                }
+            }
+            // 之后的匹配起点都大于p，起点p的结果已经确定
+            int p = i + 1 - maxLength;
+            if (p < 0) continue;
+            int slot = p % maxLength;
+            int length = best[slot];
+            best[slot] = 0;
+            if (length == 0 || p < position) continue;
+            CharSequence replacement = replacer.replace(text, p, p + length, bestKeyword[slot]);
+            if (replacement == null) continue;
+            if (sb == null) {
+                sb = new StringBuilder(n);
+            }
+            sb.append(text, copied, p).append(replacement);
+            copied = position = p + length;
+        }
+        if (sb == null) return text.toString();
+        return sb.append(text, copied, n).toString();
+    }
+
+    private int next(int state, char c) {
+        int next;
+        while ((next = transition(state, c)) < 0 && state != ROOT) {
+            state = fail[state];
+        }
+        return next < 0 ? ROOT : next;
+    }
+
+    private int transition(int state, char c) {
+        if (state == ROOT && c < 128) {
+            return rootAscii[c];
+        }
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        if (high - low < LINEAR_SCAN_LIMIT) {
+            for (int i = low; i <= high; i++) {
+                if (edgeLabel[i] == c) return edgeTarget[i];
+            }
+            return -1;
+        }
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = edgeLabel[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return edgeTarget[mid];
+            }
+        }
+        return -1;
+    }
+
+    private char fold(char c) {
+        if (!ignoreCase) return c;
+        if (c < 0x80) return c >= 'A' && c <= 'Z' ? (char) (c | 0x20) : c;
+        return Character.toLowerCase(c);
+    }
+
+    private String fold(String s) {
+        if (!ignoreCase) return s;
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 一次匹配
+     */
+    public static final class Match {
+        private final int start;
+        private final int end;
+        private final int keywordIndex;
+        private final String keyword;
+
+        private Match(int start, int end, int keywordIndex, String keyword) {
+            this.start = start;
+            this.end = end;
+            this.keywordIndex = keywordIndex;
+            this.keyword = keyword;
+        }
+
+        /**
+         * 起始下标（包含）
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * 结束下标（不包含）
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        public int getKeywordIndex() {
+            return keywordIndex;
+        }
+
+        /**
+         * 匹配到的关键词（忽略大小写时为关键词原文，不一定与文本中的写法相同）
+         */
+        public String getKeyword() {
+            return keyword;
+        }
+
+        @Override
+        public String toString() {
+            return keyword + "[" + start + ", " + end + ")";
+        }
+    }
+}
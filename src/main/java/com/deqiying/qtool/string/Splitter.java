@@ -0,0 +1,391 @@
+package com.deqiying.qtool.string;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 字符串分割器
+ * <p>
+ * 不可变对象，按分隔符缓存：单字符与字面量分隔符直接用indexOf查找，不经过正则；
+ * 正则分隔符只编译一次。除了返回List/数组，还可以通过{@link #split(CharSequence, SliceConsumer)}回调或
+ * 可复用的{@link Cursor}逐项访问原文中的区间，不为每一项创建String。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * Splitter comma = Splitter.on(',').trimResults();
+ * Splitter.Cursor field = comma.cursor();
+ * for (String line : lines) {
+ *     field.reset(line);
+ *     while (field.next()) {
+ *         // field本身是当前项的CharSequence视图，也可以用field.start()/field.end()取区间
+ *     }
+ * }
+ * }</pre>
+ *
+ * @author deqiying
+ */
+@SuppressWarnings("unused")
+public final class Splitter {
+    private static final int MAX_CACHED = 256;
+    private static final int TRIM = 1;
+    private static final int OMIT_EMPTY = 2;
+
+    private static final Splitter[] ASCII = new Splitter[128];
+    private static final ConcurrentHashMap<String, Splitter> LITERALS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Splitter> PATTERNS = new ConcurrentHashMap<>();
+
+    /**
+     * 回调方式访问分割结果
+     */
+    @FunctionalInterface
+    public interface SliceConsumer {
+        /**
+         * @param source 原文
+         * @param start  当前项的起始下标（包含）
+         * @param end    当前项的结束下标（不包含）
+         * @return 是否继续
+         */
+        boolean accept(CharSequence source, int start, int end);
+    }
+
+    private final char separator;
+    private final String literal;
+    private final Pattern pattern;
+    private final int flags;
+    // 按flags缓存的变体，并发下重复创建也无妨
+    private final Splitter[] variants;
+
+    private Splitter(char separator, String literal, Pattern pattern, int flags, Splitter[] variants) {
+        this.separator = separator;
+        this.literal = literal;
+        this.pattern = pattern;
+        this.flags = flags;
+        this.variants = variants;
+    }
+
+    /**
+     * 构造完成后再放入变体数组，其他线程通过数组拿到的一定是完整对象（final字段语义）
+     */
+    private static Splitter create(char separator, String literal, Pattern pattern) {
+        Splitter splitter = new Splitter(separator, literal, pattern, 0, new Splitter[4]);
+        splitter.variants[0] = splitter;
+        return splitter;
+    }
+
+    /**
+     * 以单个字符分割
+     *
+     * @param separator 分隔字符
+     * @return 分割器
+     */
+    public static Splitter on(char separator) {
+        if (separator < ASCII.length) {
+            Splitter splitter = ASCII[separator];
+            if (splitter == null) {
+                splitter = create(separator, null, null);
+                ASCII[separator] = splitter;
+            }
+            return splitter;
+        }
+        return create(separator, null, null);
+    }
+
+    /**
+     * 以字面量分割（不作为正则解释）
+     *
+     * @param separator 分隔符
+     * @return 分割器
+     */
+    public static Splitter on(String separator) {
+        if (separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("分隔符不能为空");
+        }
+        if (separator.length() == 1) {
+            return on(separator.charAt(0));
+        }
+        return cached(LITERALS, separator, () -> create('\0', separator, null));
+    }
+
+    /**
+     * 以正则表达式分割，编译结果按表达式缓存
+     * <p>
+     * 与{@link String#split(String, int)}一样，零宽匹配（如{@code (?=,)}、{@code \b}）不会在开头或同一位置重复分割。
+     *
+     * @param regex 正则表达式
+     * @return 分割器
+     */
+    public static Splitter onPattern(String regex) {
+        return cached(PATTERNS, regex, () -> create('\0', null, Pattern.compile(regex)));
+    }
+
+    private static Splitter cached(ConcurrentHashMap<String, Splitter> cache, String key,
+                                   Supplier<Splitter> factory) {
+        Splitter splitter = cache.get(key);
+        if (splitter == null) {
+            splitter = factory.get();
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            Splitter existing = cache.putIfAbsent(key, splitter);
+            if (existing != null) {
+                splitter = existing;
+            }
+        }
+        return splitter;
+    }
+
+    /**
+     * 去掉每一项首尾的空白（与{@link String#trim()}相同，即不大于空格的字符）
+     */
+    public Splitter trimResults() {
+        return variant(flags | TRIM);
+    }
+
+    /**
+     * 忽略空项（在trim之后判断）
+     */
+    public Splitter omitEmptyStrings() {
+        return variant(flags | OMIT_EMPTY);
+    }
+
+    private Splitter variant(int flags) {
+        Splitter splitter = variants[flags];
+        if (splitter == null) {
+            splitter = new Splitter(separator, literal, pattern, flags, variants);
+            variants[flags] = splitter;
+        }
+        return splitter;
+    }
+
+    /**
+     * 逐项回调，不创建String
+     *
+     * @param source   原文
+     * @param consumer 回调，返回false时停止
+     * @return 回调的项数
+     */
+    public int split(CharSequence source, SliceConsumer consumer) {
+        Matcher matcher = pattern == null ? null : pattern.matcher(source);
+        int length = source.length();
+        int count = 0;
+        int position = 0;
+        boolean emptySeparator = false;
+        while (position <= length) {
+            long found = find(source, position, emptySeparator, matcher);
+            emptySeparator = found >= 0 && (int) (found >>> 32) == (int) found;
+            int start = position;
+            int end = found < 0 ? length : (int) (found >>> 32);
+            position = found < 0 ? length + 1 : (int) found;
+            if ((flags & TRIM) != 0) {
+                while (start < end && source.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && source.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+            }
+            if ((flags & OMIT_EMPTY) != 0 && start == end) {
+                continue;
+            }
+            count++;
+            if (!consumer.accept(source, start, end)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 分割为列表
+     *
+     * @param source 原文
+     * @return 各项组成的列表
+     */
+    public List<String> splitToList(CharSequence source) {
+        List<String> result = new ArrayList<>();
+        split(source, (s, start, end) -> result.add(s.subSequence(start, end).toString()));
+        return result;
+    }
+
+    /**
+     * 分割为数组
+     *
+     * @param source 原文
+     * @return 各项组成的数组
+     */
+    public String[] splitToArray(CharSequence source) {
+        return splitToList(source).toArray(new String[0]);
+    }
+
+    /**
+     * 创建未绑定原文的游标，通过{@link Cursor#reset(CharSequence)}绑定，可反复使用
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 创建绑定原文的游标
+     *
+     * @param source 原文
+     */
+    public Cursor cursor(CharSequence source) {
+        return new Cursor().reset(source);
+    }
+
+    /**
+     * 查找from及之后的第一个分隔符
+     *
+     * @param afterEmpty 上一个分隔符是否为零宽匹配，是则从下一个字符开始查找，保证位置前进
+     * @return 高32位为分隔符起始下标，低32位为结束下标；未找到时返回-1
+     */
+    private long find(CharSequence source, int from, boolean afterEmpty, Matcher matcher) {
+        if (matcher != null) {
+            // 与String.split一致：零宽匹配不在开头分割，也不在同一位置重复分割
+            int next = afterEmpty ? from + 1 : from;
+            while (next <= source.length() && matcher.find(next)) {
+                int start = matcher.start();
+                int end = matcher.end();
+                if (end > start || start > 0) {
+                    return (long) start << 32 | end;
+                }
+                next = start + 1;
+            }
+            return -1;
+        }
+        int index;
+        int width;
+        if (literal == null) {
+            width = 1;
+            if (source instanceof String) {
+                index = ((String) source).indexOf(separator, from);
+            } else {
+                index = -1;
+                for (int i = from; i < source.length(); i++) {
+                    if (source.charAt(i) == separator) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+        } else {
+            width = literal.length();
+            index = StringUtils.indexOf(source, literal, from);
+        }
+        return index < 0 ? -1 : (long) index << 32 | (index + width);
+    }
+
+    /**
+     * 分割游标，本身即为当前项的{@link CharSequence}视图（不复制字符）
+     * <p>
+     * 非线程安全，每个线程使用自己的游标。
+     */
+    public final class Cursor implements CharSequence {
+        private CharSequence source;
+        private Matcher matcher;
+        private int position;
+        private boolean emptySeparator;
+        private int start;
+        private int end;
+
+        private Cursor() {
+        }
+
+        /**
+         * 绑定新的原文并回到开头
+         *
+         * @param source 原文
+         * @return this
+         */
+        public Cursor reset(CharSequence source) {
+            this.source = source;
+            if (pattern != null) {
+                matcher = matcher == null ? pattern.matcher(source) : matcher.reset(source);
+            }
+            position = 0;
+            emptySeparator = false;
+            start = 0;
+            end = 0;
+            return this;
+        }
+
+        /**
+         * 移动到下一项
+         *
+         * @return 是否还有下一项
+         */
+        public boolean next() {
+            int length = source.length();
+            while (position <= length) {
+                long found = find(source, position, emptySeparator, matcher);
+                emptySeparator = found >= 0 && (int) (found >>> 32) == (int) found;
+                int s = position;
+                int e = found < 0 ? length : (int) (found >>> 32);
+                position = found < 0 ? length + 1 : (int) found;
+                if ((flags & TRIM) != 0) {
+                    while (s < e && source.charAt(s) <= ' ') {
+                        s++;
+                    }
+                    while (e > s && source.charAt(e - 1) <= ' ') {
+                        e--;
+                    }
+                }
+                if ((flags & OMIT_EMPTY) != 0 && s == e) {
+                    continue;
+                }
+                start = s;
+                end = e;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 当前项在原文中的起始下标（包含）
+         */
+        public int start() {
+            return start;
+        }
+
+        /**
+         * 当前项在原文中的结束下标（不包含）
+         */
+        public int end() {
+            return end;
+        }
+
+        public CharSequence source() {
+            return source;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + (end - start));
+            }
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to) {
+                throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + (end - start));
+            }
+            return source.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return source.subSequence(start, end).toString();
+        }
+    }
+}
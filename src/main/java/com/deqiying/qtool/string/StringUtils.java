@@ -385,6 +385,8 @@ public class StringUtils {
 
     /**
      * null安全的忽略大小写比较
+     * <p>
+     * 两侧都是ASCII字符时直接比较，不调用{@link Character#toLowerCase(char)}。
      *
      * @param a 字符序列A
      * @param b 字符序列B
@@ -395,7 +397,17 @@ public class StringUtils {
         if (a == null || b == null) return false;
         if (a.length() != b.length()) return false;
         for (int i = 0; i < a.length(); i++) {
-            if (Character.toLowerCase(a.charAt(i)) != Character.toLowerCase(b.charAt(i))) return false;
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x == y) continue;
+            if ((x | y) < 0x80) {
+                // ASCII只有字母大小写相差0x20
+                int lower = x | 0x20;
+                if ((x ^ y) != 0x20 || lower < 'a' || lower > 'z') return false;
+                continue;
+            }
+            // 非ASCII字符（如开尔文符号）可能小写为ASCII字母，仍按原规则比较
+            if (Character.toLowerCase(x) != Character.toLowerCase(y)) return false;
         }
         return true;
     }
@@ -405,7 +417,54 @@ public class StringUtils {
      */
     public static boolean contains(final CharSequence seq, final CharSequence search) {
         if (seq == null || search == null) return false;
-        return seq.toString().contains(search);
+        return indexOf(seq, search, 0) != INDEX_NOT_FOUND;
+    }
+
+    /**
+     * 判断seq的区间[offset, offset + length)是否包含search
+     *
+     * @param seq    字符序列
+     * @param offset 区间起始下标
+     * @param length 区间长度
+     * @param search 待查找的内容
+     * @return 是否包含
+     * @throws IndexOutOfBoundsException 区间超出seq的范围
+     */
+    public static boolean contains(final CharSequence seq, final int offset, final int length,
+                                   final CharSequence search) {
+        if (seq == null || search == null) return false;
+        checkRegion(seq, offset, length);
+        return indexOf(seq, offset, offset + length, search) != INDEX_NOT_FOUND;
+    }
+
+    /**
+     * 从from开始查找search第一次出现的位置
+     *
+     * @param seq    字符序列
+     * @param search 待查找的内容
+     * @param from   起始下标，小于0按0处理
+     * @return 下标，未找到或任一参数为null时返回{@link #INDEX_NOT_FOUND}
+     */
+    public static int indexOf(final CharSequence seq, final CharSequence search, final int from) {
+        if (seq == null || search == null) return INDEX_NOT_FOUND;
+        if (seq instanceof String && search instanceof String) {
+            return ((String) seq).indexOf((String) search, from);
+        }
+        return indexOf(seq, Math.max(from, 0), seq.length(), search);
+    }
+
+    private static int indexOf(final CharSequence seq, final int from, final int to, final CharSequence search) {
+        int n = search.length();
+        if (n == 0) return Math.min(from, to);
+        if (seq instanceof String && search instanceof String && to == seq.length()) {
+            return ((String) seq).indexOf((String) search, from);
+        }
+        char first = search.charAt(0);
+        int last = to - n;
+        for (int i = from; i <= last; i++) {
+            if (seq.charAt(i) == first && matches(seq, i + 1, search, 1, n - 1)) return i;
+        }
+        return INDEX_NOT_FOUND;
     }
 
     /**
@@ -413,7 +472,26 @@ public class StringUtils {
      */
     public static boolean startsWith(final CharSequence str, final CharSequence prefix) {
         if (str == null || prefix == null) return false;
-        return str.toString().startsWith(prefix.toString());
+        if (str instanceof String && prefix instanceof String) {
+            return ((String) str).startsWith((String) prefix);
+        }
+        return prefix.length() <= str.length() && matches(str, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * 判断str的区间[offset, offset + length)是否以prefix开头
+     *
+     * @throws IndexOutOfBoundsException 区间超出str的范围
+     */
+    public static boolean startsWith(final CharSequence str, final int offset, final int length,
+                                     final CharSequence prefix) {
+        if (str == null || prefix == null) return false;
+        checkRegion(str, offset, length);
+        if (prefix.length() > length) return false;
+        if (str instanceof String && prefix instanceof String) {
+            return ((String) str).startsWith((String) prefix, offset);
+        }
+        return matches(str, offset, prefix, 0, prefix.length());
     }
 
     /**
@@ -421,7 +499,42 @@ public class StringUtils {
      */
     public static boolean endsWith(final CharSequence str, final CharSequence suffix) {
         if (str == null || suffix == null) return false;
-        return str.toString().endsWith(suffix.toString());
+        if (str instanceof String && suffix instanceof String) {
+            return ((String) str).endsWith((String) suffix);
+        }
+        int start = str.length() - suffix.length();
+        return start >= 0 && matches(str, start, suffix, 0, suffix.length());
+    }
+
+    /**
+     * 判断str的区间[offset, offset + length)是否以suffix结尾
+     *
+     * @throws IndexOutOfBoundsException 区间超出str的范围
+     */
+    public static boolean endsWith(final CharSequence str, final int offset, final int length,
+                                   final CharSequence suffix) {
+        if (str == null || suffix == null) return false;
+        checkRegion(str, offset, length);
+        if (suffix.length() > length) return false;
+        int start = offset + length - suffix.length();
+        if (str instanceof String && suffix instanceof String) {
+            return ((String) str).startsWith((String) suffix, start);
+        }
+        return matches(str, start, suffix, 0, suffix.length());
+    }
+
+    private static boolean matches(final CharSequence a, int aOffset, final CharSequence b, int bOffset, int length) {
+        while (length-- > 0) {
+            if (a.charAt(aOffset++) != b.charAt(bOffset++)) return false;
+        }
+        return true;
+    }
+
+    private static void checkRegion(final CharSequence seq, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset > seq.length() - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length
+                    + ", size: " + seq.length());
+        }
     }
 
     /**
@@ -443,6 +556,8 @@ public class StringUtils {
 
     /**
      * 简单分割（不保留空项），对每项进行trim
+     * <p>
+     * 分隔符按字面量处理，分割器按分隔符缓存；需要避免为每一项创建String时直接使用{@link Splitter}。
      *
      * @param str       原字符串
      * @param delimiter 分隔符
@@ -451,14 +566,7 @@ public class StringUtils {
     public static String[] split(final String str, final String delimiter) {
         if (str == null) return new String[0];
         if (delimiter == null || delimiter.isEmpty()) return new String[]{str};
-        String[] arr = str.split(java.util.regex.Pattern.quote(delimiter));
-        java.util.List<String> list = new java.util.ArrayList<>(arr.length);
-        for (String s : arr) {
-            if (s == null) continue;
-            String t = s.trim();
-            if (!t.isEmpty()) list.add(t);
-        }
-        return list.toArray(new String[0]);
+        return Splitter.on(delimiter).trimResults().omitEmptyStrings().splitToArray(str);
     }
 
     /**
@@ -0,0 +1,286 @@
+package com.deqiying.qtool.net;
+
+import com.deqiying.qtool.UrlUtils;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingHostResolverTest {
+
+    /**
+     * 按主机名返回固定地址的桩解析器，记录调用次数
+     */
+    private static final class StubResolver implements HostResolver {
+        final Map<String, InetAddress[]> answers = new HashMap<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        StubResolver answer(String host, InetAddress... addresses) {
+            answers.put(host, addresses);
+            return this;
+        }
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            calls.incrementAndGet();
+            InetAddress[] addresses = answers.get(host);
+            if (addresses == null) {
+                throw new UnknownHostException(host);
+            }
+            return addresses;
+        }
+    }
+
+    private static InetAddress ip(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+
+    @Test
+    void cachesUntilTtlExpires() throws Exception {
+        StubResolver stub = new StubResolver().answer("example.test", ip("93.184.216.34"));
+        CachingHostResolver resolver = new CachingHostResolver(stub, 200, 50, IpCategory.NOT_GLOBAL);
+
+        assertArrayEquals(ip("93.184.216.34").getAddress(), resolver.resolve("example.test")[0].getAddress());
+        resolver.resolve("EXAMPLE.test");
+        assertEquals(1, stub.calls.get());
+
+        Thread.sleep(300);
+        resolver.resolve("example.test");
+        assertEquals(2, stub.calls.get());
+    }
+
+    @Test
+    void cachesFailuresForNegativeTtl() throws Exception {
+        StubResolver stub = new StubResolver();
+        CachingHostResolver resolver = new CachingHostResolver(stub, 60_000, 200, IpCategory.NOT_GLOBAL);
+
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.test"));
+        assertThrows(UnknownHostException.class, () -> resolver.resolve("missing.test"));
+        assertEquals(1, stub.calls.get());
+
+        stub.answer("missing.test", ip("93.184.216.34"));
+        Thread.sleep(300);
+        assertEquals(1, resolver.resolve("missing.test").length);
+        assertEquals(2, stub.calls.get());
+    }
+
+    @Test
+    void coalescesConcurrentLookups() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        InetAddress answer = ip("93.184.216.34");
+        CachingHostResolver resolver = new CachingHostResolver(host -> {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new InetAddress[]{answer};
+        }, 60_000, 5_000, IpCategory.NOT_GLOBAL);
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<InetAddress[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(executor.submit(() -> resolver.resolve("example.test")));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<InetAddress[]> future : futures) {
+                assertArrayEquals(answer.getAddress(), future.get(5, TimeUnit.SECONDS)[0].getAddress());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void rejectsNonGlobalAnswers() throws Exception {
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        mapped[12] = 10;
+        mapped[15] = 1;
+        StubResolver stub = new StubResolver()
+                .answer("private.test", ip("10.0.0.1"))
+                .answer("loopback.test", ip("127.0.0.1"))
+                .answer("loopback6.test", ip("::1"))
+                .answer("link-local.test", ip("169.254.169.254"))
+                .answer("link-local6.test", ip("fe80::1"))
+                .answer("mapped.test", Inet6Address.getByAddress(null, mapped, -1))
+                .answer("nat64.test", ip("64:ff9b::a9fe:a9fe"))
+                .answer("mixed.test", ip("93.184.216.34"), ip("192.168.1.1"));
+        CachingHostResolver resolver = new CachingHostResolver(stub, 60_000, 5_000, IpCategory.NOT_GLOBAL);
+
+        for (String host : stub.answers.keySet()) {
+            assertThrows(BlockedAddressException.class, () -> resolver.resolve(host), host);
+        }
+    }
+
+    @Test
+    void redirectToBlockedHostIsRejected() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        int port = server.getAddress().getPort();
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().set("Location", "http://internal.test:" + port + "/secret");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            StubResolver stub = new StubResolver()
+                    .answer("public.test", InetAddress.getLoopbackAddress())
+                    .answer("internal.test", ip("10.0.0.1"));
+            UrlUtils.FetchOptions options = new UrlUtils.FetchOptions();
+            // 测试服务器在环回地址上，只放行环回
+            options.resolver = new CachingHostResolver(stub, 60_000, 5_000,
+                    IpCategory.NOT_GLOBAL & ~IpCategory.LOOPBACK);
+
+            Exception e = assertThrows(Exception.class,
+                    () -> UrlUtils.downloadUrl("http://public.test:" + port + "/", options));
+            assertTrue(hasCause(e, BlockedAddressException.class), e.toString());
+            // 先解析public.test，跟随重定向时解析internal.test被拒绝
+            assertEquals(2, stub.calls.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void unreachableAddressFallsBackToNext() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        int port = server.getAddress().getPort();
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            // 服务器只监听127.0.0.1，第一个地址拒绝连接
+            StubResolver stub = new StubResolver()
+                    .answer("public.test", ip("127.0.0.2"), InetAddress.getLoopbackAddress());
+            UrlUtils.FetchOptions options = new UrlUtils.FetchOptions();
+            options.deadlineMillis = 10_000;
+            options.resolver = new CachingHostResolver(stub, 60_000, 5_000,
+                    IpCategory.NOT_GLOBAL & ~IpCategory.LOOPBACK);
+
+            byte[] body = UrlUtils.downloadUrl("http://public.test:" + port + "/", options);
+            assertEquals("ok", new String(body, StandardCharsets.UTF_8));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void httpsConnectsToResolvedAddress(@TempDir File dir) throws Exception {
+        SSLContext context = selfSignedContext(dir, "public.test");
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(context));
+        int port = server.getAddress().getPort();
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(context.getSocketFactory());
+        try {
+            // 两个主机名都只能经桩解析器解析到环回地址，证书只签发给public.test
+            StubResolver stub = new StubResolver()
+                    .answer("public.test", InetAddress.getLoopbackAddress())
+                    .answer("other.test", InetAddress.getLoopbackAddress());
+            UrlUtils.FetchOptions options = new UrlUtils.FetchOptions();
+            options.resolver = new CachingHostResolver(stub, 60_000, 5_000,
+                    IpCategory.NOT_GLOBAL & ~IpCategory.LOOPBACK);
+
+            byte[] body = UrlUtils.downloadUrl("https://public.test:" + port + "/", options);
+            assertEquals("ok", new String(body, StandardCharsets.UTF_8));
+
+            // 连接固定到解析出的地址，证书主机名校验仍使用原主机名
+            Exception e = assertThrows(Exception.class,
+                    () -> UrlUtils.downloadUrl("https://other.test:" + port + "/", options));
+            assertTrue(hasCause(e, SSLHandshakeException.class), e.toString());
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(defaultFactory);
+            server.stop(0);
+        }
+    }
+
+    /**
+     * 用keytool生成自签名证书，返回服务端与客户端共用（同时信任该证书）的SSLContext
+     */
+    private static SSLContext selfSignedContext(File dir, String host) throws Exception {
+        File keystore = new File(dir, "test.p12");
+        char[] password = "changeit".toCharArray();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "test", "-keyalg", "RSA",
+                "-keysize", "2048", "-validity", "1", "-dname", "CN=" + host, "-ext", "SAN=dns:" + host,
+                "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+                "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true)
+                .start();
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS) && process.exitValue() == 0, "keytool failed");
+
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore)) {
+            store.load(in, password);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.deqiying.qtool.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeavyHitterSketchTest {
+    private static final long WINDOW = 60_000;
+
+    // 固定的起始时间，测试结果与真实时钟无关
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+
+    @Test
+    void lateHeavyHitterIsNotLost() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            HeavyHitterSketch sketch = new HeavyHitterSketch(8, 16384, 4, WINDOW, 1, now::get);
+            String first = "1.1." + random.nextInt(256) + "." + random.nextInt(256);
+            String late = "2.2." + random.nextInt(256) + "." + random.nextInt(256);
+            for (int i = 0; i < 1000; i++) {
+                sketch.record(first);
+            }
+            for (int i = 0; i < 64; i++) {
+                sketch.record("10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256));
+            }
+            for (int i = 0; i < 500; i++) {
+                sketch.record(late);
+            }
+
+            List<HeavyHitterSketch.HeavyHitter> top = sketch.topN(2);
+            assertEquals(2, top.size(), "run " + run);
+            assertEquals(first, top.get(0).getAddress(), "run " + run);
+            assertEquals(late, top.get(1).getAddress(), "run " + run);
+            assertTrue(top.get(1).getCount() >= 500, "run " + run);
+        }
+    }
+
+    @Test
+    void topNIsOrderedByCount() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(16, 16384, 4, WINDOW, 6, now::get);
+        for (int ip = 1; ip <= 10; ip++) {
+            for (int i = 0; i < ip * 10; i++) {
+                sketch.record("192.0.2." + ip);
+            }
+        }
+        List<HeavyHitterSketch.HeavyHitter> top = sketch.topN(3);
+        assertEquals("192.0.2.10", top.get(0).getAddress());
+        assertEquals("192.0.2.9", top.get(1).getAddress());
+        assertEquals("192.0.2.8", top.get(2).getAddress());
+        assertEquals(100, sketch.estimate("192.0.2.10"));
+    }
+
+    @Test
+    void countsExpireAfterWindow() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(16, 16384, 4, WINDOW, 6, now::get);
+        for (int i = 0; i < 100; i++) {
+            sketch.record("192.0.2.1");
+        }
+        now.addAndGet(WINDOW / 2);
+        for (int i = 0; i < 50; i++) {
+            sketch.record("192.0.2.2");
+        }
+        assertEquals(100, sketch.estimate("192.0.2.1"));
+        assertEquals(50, sketch.estimate("192.0.2.2"));
+        assertEquals(2, sketch.topN(5).size());
+
+        // 第一批计数移出窗口，第二批仍在窗口内
+        now.addAndGet(WINDOW / 2 + WINDOW / 6);
+        assertEquals(0, sketch.estimate("192.0.2.1"));
+        assertEquals(50, sketch.estimate("192.0.2.2"));
+        List<HeavyHitterSketch.HeavyHitter> top = sketch.topN(5);
+        assertEquals(1, top.size());
+        assertEquals("192.0.2.2", top.get(0).getAddress());
+        assertEquals(50, top.get(0).getCount());
+
+        now.addAndGet(WINDOW);
+        assertEquals(0, sketch.estimate("192.0.2.2"));
+        assertTrue(sketch.topN(5).isEmpty());
+    }
+}